@@ -0,0 +1,114 @@
+package com.example.tomek.notepad;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.SpannableString;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * Throughput of batch write API compared to writing notes one by one
+ */
+@RunWith(AndroidJUnit4.class)
+public class BatchWriteBenchmark {
+
+    private static final int NOTES_COUNT = 500;
+
+    private DatabaseHandler databaseHandler;
+
+    @Before
+    public void setup() {
+        Context appContext = InstrumentationRegistry.getTargetContext();
+        databaseHandler = DatabaseHandler.getInstance(appContext);
+        databaseHandler.clearAllNotes();
+    }
+
+    @After
+    public void cleanup() {
+        databaseHandler.clearAllNotes();
+    }
+
+    @Test
+    public void shouldWriteBatchFasterThanSingleNotes() {
+        List<Note> notes = createNotes(NOTES_COUNT);
+
+        // Per-note path
+        long start = System.nanoTime();
+        for (Note note : notes) {
+            databaseHandler.createNote(note);
+        }
+        long singleInsertMillis = (System.nanoTime() - start) / 1000000;
+        databaseHandler.clearAllNotes();
+
+        // Batch path
+        start = System.nanoTime();
+        long[] ids = databaseHandler.createNotes(notes);
+        long batchInsertMillis = (System.nanoTime() - start) / 1000000;
+
+        assertThat(ids.length, is(NOTES_COUNT));
+        assertThat(databaseHandler.getNoteCount(), is(NOTES_COUNT));
+
+        for (int i = 0; i < NOTES_COUNT; i++) {
+            notes.get(i).setId((int) ids[i]);
+            notes.get(i).setTitle("Updated " + i);
+        }
+
+        start = System.nanoTime();
+        for (Note note : notes) {
+            databaseHandler.updateNote(note);
+        }
+        long singleUpdateMillis = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        int updatedCount = databaseHandler.updateNotes(notes);
+        long batchUpdateMillis = (System.nanoTime() - start) / 1000000;
+
+        assertThat(updatedCount, is(NOTES_COUNT));
+        assertThat(databaseHandler.getNote((int) ids[0]).getTitle(), is("Updated 0"));
+
+        int[] idsToDelete = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            idsToDelete[i] = (int) ids[i];
+        }
+        start = System.nanoTime();
+        int deletedCount = databaseHandler.deleteNotes(idsToDelete);
+        long batchDeleteMillis = (System.nanoTime() - start) / 1000000;
+
+        assertThat(deletedCount, is(NOTES_COUNT));
+        assertThat(databaseHandler.getNoteCount(), is(0));
+
+        System.out.println("BENCHMARK " + NOTES_COUNT + " inserts: single=" + singleInsertMillis
+                + "ms batch=" + batchInsertMillis + "ms");
+        System.out.println("BENCHMARK " + NOTES_COUNT + " updates: single=" + singleUpdateMillis
+                + "ms batch=" + batchUpdateMillis + "ms");
+        System.out.println("BENCHMARK " + NOTES_COUNT + " deletes: batch=" + batchDeleteMillis + "ms");
+
+        assertThat(batchInsertMillis, lessThan(singleInsertMillis));
+        assertThat(batchUpdateMillis, lessThan(singleUpdateMillis));
+    }
+
+    private static List<Note> createNotes(int count) {
+        List<Note> notes = new ArrayList<>(count);
+        Bitmap bmp = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        for (int i = 0; i < count; i++) {
+            Note note = new Note();
+            note.setTitle("Note " + i);
+            note.setSpannable(new SpannableString("Some note text " + i));
+            note.setImage(bmp);
+            notes.add(note);
+        }
+        return notes;
+    }
+}
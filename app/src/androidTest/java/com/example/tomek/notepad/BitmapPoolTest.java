@@ -0,0 +1,92 @@
+package com.example.tomek.notepad;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * Tests of BitmapPool reusing bitmaps of drawings
+ */
+@RunWith(AndroidJUnit4.class)
+public class BitmapPoolTest {
+
+    private static final int WIDTH = 108;
+    private static final int HEIGHT = 192;
+
+    @Test
+    public void shouldReuseBitmapOfTheSameSizeCleared() {
+        BitmapPool pool = new BitmapPool(10 * 4 * WIDTH * HEIGHT);
+        Bitmap bitmap = pool.get(WIDTH, HEIGHT);
+        bitmap.eraseColor(Color.RED);
+        pool.put(bitmap);
+
+        Bitmap reused = pool.get(WIDTH, HEIGHT);
+
+        assertThat(reused, sameInstance(bitmap));
+        assertThat(reused.getPixel(WIDTH / 2, HEIGHT / 2), is(Color.TRANSPARENT));
+        assertThat(pool.getHitCount(), is(1L));
+        assertThat(pool.getMissCount(), is(1L));
+        assertThat(pool.getSize(), is(0L));
+    }
+
+    @Test
+    public void shouldReuseBitmapAfterRotation() {
+        BitmapPool pool = new BitmapPool(10 * 4 * WIDTH * HEIGHT);
+        Bitmap portrait = pool.get(WIDTH, HEIGHT);
+        pool.put(portrait);
+
+        Bitmap landscape = pool.get(HEIGHT, WIDTH);
+
+        assertThat(landscape, sameInstance(portrait));
+        assertThat(landscape.getWidth(), is(HEIGHT));
+        assertThat(landscape.getHeight(), is(WIDTH));
+        // Much bigger bitmap isn't pinned by small request
+        pool.put(landscape);
+        assertThat(pool.get(WIDTH / 4, HEIGHT / 4), not(sameInstance(landscape)));
+    }
+
+    @Test
+    public void shouldDropOldestBitmapsOverCap() {
+        BitmapPool pool = new BitmapPool(2 * 4 * WIDTH * HEIGHT);
+        Bitmap first = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        Bitmap second = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        Bitmap third = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        pool.put(first);
+        pool.put(second);
+        pool.put(third);
+        // Immutable bitmaps can't be drawn on, they're ignored
+        pool.put(first.copy(Bitmap.Config.ARGB_8888, false));
+
+        assertThat(pool.getEvictionCount(), is(1L));
+        assertThat(pool.getSize(), is(2L * 4 * WIDTH * HEIGHT));
+        assertThat(pool.get(WIDTH, HEIGHT), sameInstance(third));
+        assertThat(pool.get(WIDTH, HEIGHT), sameInstance(second));
+    }
+
+    @Test
+    public void shouldDecodeIntoPooledBitmap() throws Exception {
+        Bitmap drawing = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        drawing.eraseColor(Color.BLUE);
+        byte[] png = BitmapConverter.getBytes(drawing);
+        BitmapPool pool = new BitmapPool(10 * 4 * WIDTH * HEIGHT);
+        Bitmap pooled = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        pool.put(pooled);
+
+        Bitmap decoded = pool.decode(new BufferedInputStream(new ByteArrayInputStream(png)));
+
+        assertThat(decoded, sameInstance(pooled));
+        assertThat(decoded.isMutable(), is(true));
+        assertThat(decoded.getPixel(0, 0), is(Color.BLUE));
+    }
+}
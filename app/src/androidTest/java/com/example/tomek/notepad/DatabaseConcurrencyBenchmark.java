@@ -0,0 +1,121 @@
+package com.example.tomek.notepad;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.SpannableString;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+
+/**
+ * Benchmark of notes list reads while a large drawing is being written
+ * With write-ahead logging readers should not wait for the writer
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseConcurrencyBenchmark {
+
+    private static final int NOTES_COUNT = 500;
+    private static final int BASELINE_READS = 50;
+    private static final int LARGE_WRITES = 5;
+    private static final int DRAWING_SIZE = 1000;
+
+    private DatabaseHandler databaseHandler;
+
+    @Before
+    public void setup() {
+        Context appContext = InstrumentationRegistry.getTargetContext();
+        databaseHandler = DatabaseHandler.getInstance(appContext);
+        databaseHandler.clearAllNotes();
+    }
+
+    @After
+    public void cleanup() {
+        databaseHandler.clearAllNotes();
+    }
+
+    @Test
+    public void measureReadLatencyDuringLargeWrite() throws InterruptedException {
+
+        // Small notes that will be listed
+        for (int i = 0; i < NOTES_COUNT; i++) {
+            databaseHandler.createNote(createNote("Note " + i, Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888)));
+        }
+
+        // Note with drawing that doesn't compress well, so every write is a few MB
+        final Note largeNote = createNote("Large note", createNoiseBitmap(DRAWING_SIZE, DRAWING_SIZE));
+        databaseHandler.createNote(largeNote);
+        largeNote.setId(databaseHandler.getNoteSummariesAfter(null, 1).get(0).getId());
+
+        // Reads with no writer
+        List<Long> baseline = new ArrayList<>();
+        for (int i = 0; i < BASELINE_READS; i++) {
+            baseline.add(timeListRead());
+        }
+
+        // Reads while writer thread rewrites large drawing
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < LARGE_WRITES; i++) {
+                    databaseHandler.updateNote(largeNote);
+                }
+            }
+        });
+        List<Long> duringWrite = new ArrayList<>();
+        writer.start();
+        while (writer.isAlive()) {
+            duringWrite.add(timeListRead());
+        }
+        writer.join();
+
+        // Readers have to make progress while writer is busy
+        assertThat(duringWrite.size(), greaterThan(LARGE_WRITES));
+
+        System.out.println("BENCHMARK baseline reads: " + describe(baseline));
+        System.out.println("BENCHMARK reads during large write: " + describe(duringWrite));
+    }
+
+    private long timeListRead() {
+        long start = System.nanoTime();
+        databaseHandler.getNoteSummariesAfter(null, PagedNoteAdapter.PAGE_SIZE);
+        return (System.nanoTime() - start) / 1000;
+    }
+
+    private static Note createNote(String title, Bitmap image) {
+        Note note = new Note();
+        note.setTitle(title);
+        note.setSpannable(new SpannableString("Some note text"));
+        note.setImage(image);
+        return note;
+    }
+
+    private static Bitmap createNoiseBitmap(int width, int height) {
+        Random random = new Random(42);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private static String describe(List<Long> micros) {
+        List<Long> sorted = new ArrayList<>(micros);
+        Collections.sort(sorted);
+        return "count=" + sorted.size()
+                + " median=" + sorted.get(sorted.size() / 2) + "us"
+                + " p95=" + sorted.get(sorted.size() * 95 / 100) + "us"
+                + " max=" + sorted.get(sorted.size() - 1) + "us";
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.tomek.notepad;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+
+/**
+ * Upgrades of databases written by first app versions
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseMigrationTest {
+
+    private static final String DATABASE_NAME = "notepadDatabase";
+    private static final String LEGACY_DATE = "05.03.2017, 10:20:30";
+    private static final int NOTES_COUNT = 5;
+
+    private Context appContext;
+
+    @Before
+    public void setup() {
+        appContext = InstrumentationRegistry.getTargetContext();
+        DatabaseHandler.closeInstance();
+        appContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void cleanup() {
+        DatabaseHandler.getInstance(appContext).clearAllNotes();
+        DatabaseHandler.closeInstance();
+        appContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void shouldUpgradeVersion1Database() {
+        createLegacyDatabase(1);
+
+        DatabaseHandler databaseHandler = upgradeAndMigrate();
+
+        ArrayList<NoteSummary> summaries = databaseHandler.getAllNoteSummaries();
+        assertThat(summaries, hasSize(NOTES_COUNT));
+        for (NoteSummary summary : summaries) {
+            assertThat(summary.getPreview().toString().startsWith("Shopping list"), is(true));
+            assertThat(summary.hasDrawing(), is(true));
+            // Version 1 had no dates, notes get the time of migration
+            assertThat(summary.getDateUpdated().getTime(), greaterThan(0L));
+        }
+        assertThat(databaseHandler.search("apples", 10), hasSize(NOTES_COUNT));
+
+        Note note = databaseHandler.getNote(summaries.get(0).getId());
+        assertThat(note.getImage(), notNullValue());
+        assertThat(note.getImage().getPixel(0, 0), is(Color.RED));
+    }
+
+    @Test
+    public void shouldUpgradeVersion2Database() throws Exception {
+        createLegacyDatabase(2);
+
+        DatabaseHandler databaseHandler = upgradeAndMigrate();
+
+        long legacyMillis = new SimpleDateFormat("dd.MM.yyyy, hh:mm:ss", Locale.getDefault()).parse(LEGACY_DATE).getTime();
+        ArrayList<NoteSummary> summaries = databaseHandler.getAllNoteSummaries();
+        assertThat(summaries, hasSize(NOTES_COUNT));
+        for (NoteSummary summary : summaries) {
+            assertThat(summary.getDateUpdated().getTime(), is(legacyMillis));
+        }
+    }
+
+    @Test
+    public void shouldResumeUpgradeOfVersion3Database() {
+        createLegacyDatabase(3);
+
+        // Migrate single row, then close database as if app was killed
+        DatabaseHandler databaseHandler = DatabaseHandler.getInstance(appContext);
+        int pendingCount = databaseHandler.getPendingMigrationRowCount();
+        assertThat(databaseHandler.runMigrationBatch(1), is(1));
+        assertThat(databaseHandler.getPendingMigrationRowCount(), is(pendingCount - 1));
+        DatabaseHandler.closeInstance();
+
+        databaseHandler = upgradeAndMigrate();
+
+        ArrayList<NoteSummary> summaries = databaseHandler.getAllNoteSummaries();
+        assertThat(summaries, hasSize(NOTES_COUNT));
+        for (NoteSummary summary : summaries) {
+            assertThat(summary.getTitle().startsWith("Title"), is(true));
+        }
+        assertThat(databaseHandler.search("title", 10), hasSize(NOTES_COUNT));
+        assertThat(databaseHandler.getNote(summaries.get(0).getId()).getSpannable().toString().startsWith("Shopping list"), is(true));
+    }
+
+    /**
+     * Method used to open database, which upgrades it, and run all scheduled migrations
+     */
+    private DatabaseHandler upgradeAndMigrate() {
+        DatabaseHandler databaseHandler = DatabaseHandler.getInstance(appContext);
+        assertThat(databaseHandler.getPendingMigrationRowCount(), greaterThan(0));
+        while (databaseHandler.runMigrationBatch(2) > 0) {
+            // Keep migrating until nothing is left
+        }
+        assertThat(databaseHandler.getPendingMigrationRowCount(), is(0));
+        return databaseHandler;
+    }
+
+    /**
+     * Method used to create database with schema and data written by given app version
+     */
+    private void createLegacyDatabase(int version) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(appContext.getDatabasePath(DATABASE_NAME), null);
+        try {
+            db.execSQL("CREATE TABLE notes(id INTEGER PRIMARY KEY AUTOINCREMENT, serializedSpannableNote TEXT, image BLOB)");
+            if (version >= 2) {
+                db.execSQL("ALTER TABLE notes ADD COLUMN dateUpdated TEXT");
+            }
+            if (version >= 3) {
+                db.execSQL("ALTER TABLE notes ADD COLUMN noteTitle VARCHAR(100)");
+            }
+
+            Bitmap bmp = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+            bmp.eraseColor(Color.RED);
+            byte[] image = BitmapConverter.getBytes(bmp);
+
+            for (int i = 0; i < NOTES_COUNT; i++) {
+                ContentValues values = new ContentValues();
+                values.put("serializedSpannableNote", "<p dir=\"ltr\">Shopping list " + i + ": <b>apples</b></p>\n");
+                values.put("image", image);
+                if (version >= 2) {
+                    values.put("dateUpdated", LEGACY_DATE);
+                }
+                if (version >= 3) {
+                    values.put("noteTitle", "Title " + i);
+                }
+                db.insert("notes", null, values);
+            }
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+}
@@ -2,6 +2,9 @@ package com.example.tomek.notepad;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 import android.text.Spannable;
@@ -19,6 +22,10 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 
 @RunWith(AndroidJUnit4.class)
 public class DatabaseTestCase {
@@ -26,14 +33,14 @@ public class DatabaseTestCase {
     @Before
     public void setup() {
         Context appContext = InstrumentationRegistry.getTargetContext();
-        DatabaseHandler databaseHandler = new DatabaseHandler(appContext);
+        DatabaseHandler databaseHandler = DatabaseHandler.getInstance(appContext);
         databaseHandler.clearAllNotes();
     }
 
     @After
     public void cleanup() {
         Context appContext = InstrumentationRegistry.getTargetContext();
-        DatabaseHandler databaseHandler = new DatabaseHandler(appContext);
+        DatabaseHandler databaseHandler = DatabaseHandler.getInstance(appContext);
         databaseHandler.clearAllNotes();
     }
 
@@ -42,7 +49,7 @@ public class DatabaseTestCase {
         Context appContext = InstrumentationRegistry.getTargetContext();
 
         // Database instance
-        DatabaseHandler databaseHandler = new DatabaseHandler(appContext);
+        DatabaseHandler databaseHandler = DatabaseHandler.getInstance(appContext);
 
         // Properties of note to be added
         final String title = "Some random title :)";
@@ -92,7 +99,7 @@ public class DatabaseTestCase {
         Context appContext = InstrumentationRegistry.getTargetContext();
 
         // Database instance
-        DatabaseHandler databaseHandler = new DatabaseHandler(appContext);
+        DatabaseHandler databaseHandler = DatabaseHandler.getInstance(appContext);
 
         // Properties of note to be added
         final String title = "Some random title :)";
@@ -137,4 +144,274 @@ public class DatabaseTestCase {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldFindNotesByWordPrefix() {
+        Context appContext = InstrumentationRegistry.getTargetContext();
+
+        // Database instance
+        DatabaseHandler databaseHandler = DatabaseHandler.getInstance(appContext);
+
+        final Bitmap bmp = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+
+        Note matchingNote = new Note();
+        matchingNote.setTitle("Shopping");
+        matchingNote.setSpannable(new SpannableString("Buy some Apples and pears"));
+        matchingNote.setImage(bmp);
+
+        Note otherNote = new Note();
+        otherNote.setTitle("Work");
+        otherNote.setSpannable(new SpannableString("Send report"));
+        otherNote.setImage(bmp);
+
+        databaseHandler.createNote(matchingNote);
+        databaseHandler.createNote(otherNote);
+
+        // Search is case insensitive and matches word prefixes
+        ArrayList<NoteSummary> results = databaseHandler.search("app", 10);
+        assertThat(results, hasSize(1));
+        assertThat(results.get(0).getTitle(), is("Shopping"));
+
+        // Deleted notes disappear from index
+        databaseHandler.deleteNote(results.get(0).getId());
+        assertThat(databaseHandler.search("app", 10), is(empty()));
+    }
+
+    @Test
+    public void shouldKeepBoundedPreviewOfNote() {
+        Context appContext = InstrumentationRegistry.getTargetContext();
+
+        // Database instance
+        DatabaseHandler databaseHandler = DatabaseHandler.getInstance(appContext);
+
+        StringBuilder text = new StringBuilder("First line\n\n  second\tline ");
+        while (text.length() < 10000) {
+            text.append("more text ");
+        }
+
+        Note note = new Note();
+        note.setTitle("Long note");
+        note.setSpannable(new SpannableString(text));
+        long id = databaseHandler.createNote(note);
+
+        NoteSummary summary = databaseHandler.getNoteSummary((int) id);
+        assertThat(summary.getCharacterCount(), is(text.length()));
+        assertThat(summary.getPreview().length() <= 200, is(true));
+        assertTrue(summary.getPreview().toString().startsWith("First line second line more text"));
+    }
+
+    @Test
+    public void shouldReclaimSpaceOfDeletedNotes() {
+        Context appContext = InstrumentationRegistry.getTargetContext();
+
+        // Database instance
+        DatabaseHandler databaseHandler = DatabaseHandler.getInstance(appContext);
+
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 20000) {
+            text.append("long note text ");
+        }
+        long[] ids = new long[20];
+        for (int i = 0; i < ids.length; i++) {
+            Note note = new Note();
+            note.setTitle("Note " + i);
+            note.setSpannable(new SpannableString(text));
+            ids[i] = databaseHandler.createNote(note);
+        }
+
+        StorageStats stats = databaseHandler.getStorageStats();
+        assertThat(stats.getNoteSizes(), hasSize(ids.length));
+        assertThat(stats.getNoteSizes().get(0).getTextBytes() > text.length(), is(true));
+
+        for (long id : ids) {
+            databaseHandler.deleteNote((int) id);
+        }
+        assertThat(databaseHandler.getStorageStats().getFreelistCount() > 0, is(true));
+
+        assertThat(databaseHandler.runMaintenance(), is(true));
+
+        stats = databaseHandler.getStorageStats();
+        assertThat(stats.isIncrementalVacuumEnabled(), is(true));
+        assertThat(stats.getFreelistCount(), is(0L));
+        assertThat(stats.getNoteSizes(), is(empty()));
+    }
+
+    @Test
+    public void shouldHideAndRestoreTrashedNotes() {
+        Context appContext = InstrumentationRegistry.getTargetContext();
+
+        // Database instance
+        DatabaseHandler databaseHandler = DatabaseHandler.getInstance(appContext);
+
+        ArrayList<Note> notes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Note note = new Note();
+            note.setTitle("Trash " + i);
+            note.setSpannable(new SpannableString("Trashed note " + i));
+            notes.add(note);
+        }
+        long[] ids = databaseHandler.createNotes(notes);
+
+        long trashId = databaseHandler.trashNotes((int) ids[0]);
+        assertThat(databaseHandler.getNoteCount(), is(2));
+        assertThat(databaseHandler.getAllNoteSummaries(), hasSize(2));
+        assertThat(databaseHandler.search("trashed", 10), hasSize(2));
+        assertThat(databaseHandler.getNoteSummary((int) ids[0]), is(nullValue()));
+
+        long allTrashId = databaseHandler.trashAllNotes();
+        assertThat(databaseHandler.getNoteCount(), is(0));
+
+        // Batches are restored separately
+        assertThat(databaseHandler.restoreTrashedNotes(allTrashId), is(2));
+        assertThat(databaseHandler.getNoteCount(), is(2));
+        assertThat(databaseHandler.restoreTrashedNotes(trashId), is(1));
+        assertThat(databaseHandler.getNote((int) ids[0]).getTitle(), is("Trash 0"));
+        assertThat(databaseHandler.search("trashed", 10), hasSize(3));
+    }
+
+    @Test
+    public void shouldPurgeExpiredTrashInBatches() {
+        Context appContext = InstrumentationRegistry.getTargetContext();
+
+        // Database instance
+        DatabaseHandler databaseHandler = DatabaseHandler.getInstance(appContext);
+
+        ArrayList<Note> notes = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            Note note = new Note();
+            note.setTitle("Note " + i);
+            note.setSpannable(new SpannableString("Note text " + i));
+            notes.add(note);
+        }
+        databaseHandler.createNotes(notes);
+        long trashId = databaseHandler.trashAllNotes();
+        assertThat(databaseHandler.getOldestTrashTime(), is(trashId));
+
+        // Notes trashed later aren't expired yet
+        assertThat(databaseHandler.purgeTrash(trashId, 10), is(0));
+
+        assertThat(databaseHandler.purgeTrash(trashId + 1, 10), is(10));
+        assertThat(databaseHandler.purgeTrash(trashId + 1, 10), is(10));
+        assertThat(databaseHandler.purgeTrash(trashId + 1, 10), is(5));
+        assertThat(databaseHandler.purgeTrash(trashId + 1, 10), is(0));
+        assertThat(databaseHandler.getOldestTrashTime(), is(-1L));
+        assertThat(databaseHandler.restoreTrashedNotes(trashId), is(0));
+        assertThat(databaseHandler.getStorageStats().getNoteSizes(), is(empty()));
+    }
+
+    @Test
+    public void shouldCacheDecodedNotesUntilTheyChange() {
+        Context appContext = InstrumentationRegistry.getTargetContext();
+
+        // Database instance
+        DatabaseHandler databaseHandler = DatabaseHandler.getInstance(appContext);
+        NoteCache cache = databaseHandler.getNoteCache();
+
+        Note note = new Note();
+        note.setTitle("Cached");
+        note.setSpannable(new SpannableString("Cached text"));
+        Bitmap drawing = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        drawing.eraseColor(Color.BLUE);
+        note.setImage(drawing);
+        int id = (int) databaseHandler.createNote(note);
+
+        // First read decodes the row, second one is served from memory
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+        databaseHandler.getNote(id);
+        Note cachedNote = databaseHandler.getNote(id);
+        assertThat(cache.getMissCount(), is(misses + 1));
+        assertThat(cache.getHitCount(), is(hits + 1));
+        assertThat(cachedNote.getSpannable().toString(), is("Cached text"));
+        assertThat(cachedNote.getImage().getWidth(), is(100));
+
+        // Edited note is cached as written, drawing is kept from previous version
+        cachedNote.setSpannable(new SpannableString("Edited text"));
+        cachedNote.setSpannableChanged(true);
+        databaseHandler.updateNote(cachedNote);
+        Note editedNote = databaseHandler.getNote(id);
+        assertThat(cache.getHitCount(), is(hits + 2));
+        assertThat(editedNote.getSpannable().toString(), is("Edited text"));
+        assertThat(editedNote.getImage().getWidth(), is(100));
+        assertThat(editedNote.getDateUpdated(), is(databaseHandler.getNoteSummary(id).getDateUpdated()));
+
+        // Row changed by other writes isn't served from cache
+        editedNote.setTitle("Renamed");
+        ArrayList<Note> notes = new ArrayList<>();
+        notes.add(editedNote);
+        databaseHandler.updateNotes(notes);
+        assertThat(databaseHandler.getNote(id).getTitle(), is("Renamed"));
+        assertThat(cache.getMissCount(), is(misses + 2));
+        assertThat(cache.getSize(), lessThanOrEqualTo(cache.getMaxSize()));
+    }
+
+    @Test
+    public void shouldStoreOnlyTilesWithInk() {
+        Context appContext = InstrumentationRegistry.getTargetContext();
+
+        // Database instance
+        DatabaseHandler databaseHandler = DatabaseHandler.getInstance(appContext);
+
+        // Empty canvas of the screen size
+        Bitmap drawing = Bitmap.createBitmap(1080, 1920, Bitmap.Config.ARGB_8888);
+        Note note = new Note();
+        note.setTitle("Drawing");
+        note.setSpannable(new SpannableString(""));
+        note.setImage(drawing);
+        int emptyId = (int) databaseHandler.createNote(note);
+        assertThat(databaseHandler.getNote(emptyId).getImage(), is(nullValue()));
+
+        // Single line in the corner
+        drawing = drawing.copy(Bitmap.Config.ARGB_8888, true);
+        Paint paint = new Paint();
+        paint.setColor(Color.RED);
+        paint.setStrokeWidth(10);
+        new Canvas(drawing).drawLine(20, 20, 100, 40, paint);
+        note.setImage(drawing);
+        int inkId = (int) databaseHandler.createNote(note);
+
+        Bitmap loaded = databaseHandler.getNote(inkId).getImage();
+        assertTrue(loaded.sameAs(drawing));
+        for (StorageStats.NoteSize size : databaseHandler.getStorageStats().getNoteSizes()) {
+            if (size.getNoteId() == emptyId) {
+                assertThat(size.getDrawingFileBytes(), is(0L));
+            } else {
+                // Two tiles out of hundreds are stored
+                assertThat(size.getDrawingFileBytes(), lessThan(drawing.getByteCount() / 100L));
+            }
+        }
+    }
+
+    @Test
+    public void shouldStoreStrokesAndRasterizeThemAtAnySize() {
+        Context appContext = InstrumentationRegistry.getTargetContext();
+
+        // Database instance
+        DatabaseHandler databaseHandler = DatabaseHandler.getInstance(appContext);
+
+        // Wavy stroke across the screen
+        float[] points = new float[200];
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] = 100 + 8 * i / 2;
+            points[i + 1] = 500 + (float) (40 * Math.sin(i / 10.0));
+        }
+        StrokeDrawing strokes = new StrokeDrawing(1080, 1920);
+        strokes.add(new DrawingView.Stroke(Color.RED, 20, false, points, 1080, 1920));
+        Note note = new Note();
+        note.setTitle("Strokes");
+        note.setSpannable(new SpannableString(""));
+        note.setStrokes(strokes);
+        int id = (int) databaseHandler.createNote(note);
+
+        Note loaded = databaseHandler.getNote(id);
+        assertThat(loaded.getStrokes(), is(notNullValue()));
+        assertThat(loaded.getStrokes().getStrokes(), hasSize(1));
+        // Three bytes per point at most, instead of hundreds of kilobytes of raster
+        StorageStats.NoteSize size = databaseHandler.getStorageStats().getNoteSizes().get(0);
+        assertThat(size.getDrawingFileBytes(), lessThan(3L * points.length / 2 + 64));
+
+        // Drawn again at half the width, stroke keeps its place relative to canvas
+        Bitmap half = loaded.getStrokes().rasterize(540, 960);
+        assertThat(half.getPixel(50, 250), is(Color.RED));
+        assertThat(loaded.getImage().getPixel(100, 500), is(Color.RED));
+    }
+}
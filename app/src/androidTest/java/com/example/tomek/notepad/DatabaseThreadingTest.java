@@ -0,0 +1,223 @@
+package com.example.tomek.notepad;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Looper;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.SpannableString;
+import android.widget.EditText;
+import android.widget.ListView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests of DatabaseExecutor and of activities using it
+ * DatabaseHandler throws on main thread, so activities that show notes didn't touch the database on main looper
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseThreadingTest {
+
+    private static final int WRITES_COUNT = 100;
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private Instrumentation instrumentation;
+    private Context appContext;
+    private DatabaseHandler databaseHandler;
+    private DatabaseExecutor dbExecutor;
+    private final ArrayList<Activity> activities = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        appContext = InstrumentationRegistry.getTargetContext();
+        databaseHandler = DatabaseHandler.getInstance(appContext);
+        databaseHandler.clearAllNotes();
+        dbExecutor = DatabaseExecutor.getInstance();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        for (Activity activity : activities) {
+            activity.finish();
+        }
+        instrumentation.waitForIdleSync();
+        // Journal commits of finished activities go first
+        dbExecutor.write(new Runnable() {
+            @Override
+            public void run() {
+                databaseHandler.clearAllNotes();
+            }
+        }).get();
+    }
+
+    @Test
+    public void shouldRefuseDatabaseAccessOnMainThread() {
+        final Exception[] thrown = new Exception[1];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    databaseHandler.getNoteCount();
+                } catch (IllegalStateException e) {
+                    thrown[0] = e;
+                }
+            }
+        });
+        assertThat(thrown[0], instanceOf(IllegalStateException.class));
+    }
+
+    @Test
+    public void shouldRunWritesInOrderOnSingleThread() throws Exception {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        Future<?> last = null;
+        for (int i = 0; i < WRITES_COUNT; i++) {
+            final int index = i;
+            last = dbExecutor.write(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(index);
+                    if (!threads.contains(Thread.currentThread())) {
+                        threads.add(Thread.currentThread());
+                    }
+                }
+            });
+        }
+        last.get();
+
+        assertThat(order, hasSize(WRITES_COUNT));
+        for (int i = 0; i < WRITES_COUNT; i++) {
+            assertThat(order.get(i), is(i));
+        }
+        assertThat(threads, hasSize(1));
+    }
+
+    @Test
+    public void shouldDeliverResultsOnMainLooperUnlessCancelled() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+        final boolean[] isOnMainLooper = new boolean[1];
+
+        Future<String> cancelled = dbExecutor.write(new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                release.await();
+                return "cancelled";
+            }
+        }, new RecordingCallback(delivered, isOnMainLooper));
+        Future<String> kept = dbExecutor.write(new Callable<String>() {
+            @Override
+            public String call() {
+                return "kept";
+            }
+        }, new RecordingCallback(delivered, isOnMainLooper));
+
+        cancelled.cancel(false);
+        release.countDown();
+        kept.get();
+        instrumentation.waitForIdleSync();
+
+        assertThat(delivered, contains("kept"));
+        assertThat(isOnMainLooper[0], is(true));
+    }
+
+    @Test
+    public void shouldShowNotesWithoutDatabaseAccessOnMainLooper() throws Exception {
+        final int noteId = createNote("Title", "Loaded in background");
+
+        final MainActivity mainActivity = (MainActivity) startActivity(new Intent(appContext, MainActivity.class));
+        waitFor(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                ListView listView = (ListView) mainActivity.findViewById(R.id.listView);
+                return listView.getCount() == 1 && listView.getItemAtPosition(0) != null;
+            }
+        });
+
+        Intent intent = new Intent(appContext, NoteActivity.class);
+        intent.putExtra("id", String.valueOf(noteId));
+        final NoteActivity noteActivity = (NoteActivity) startActivity(intent);
+        waitFor(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                EditText editText = (EditText) noteActivity.findViewById(R.id.editText);
+                return editText.isEnabled() && editText.getText().toString().equals("Loaded in background");
+            }
+        });
+    }
+
+    private int createNote(String title, String text) {
+        Note note = new Note();
+        note.setTitle(title);
+        note.setSpannable(new SpannableString(text));
+        return (int) databaseHandler.createNote(note);
+    }
+
+    private Activity startActivity(Intent intent) {
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        Activity activity = instrumentation.startActivitySync(intent);
+        activities.add(activity);
+        return activity;
+    }
+
+    /**
+     * Method used to wait until condition checked on main thread is met, fails after TIMEOUT_MILLIS
+     */
+    private void waitFor(final Callable<Boolean> condition) throws InterruptedException {
+        final boolean[] isMet = new boolean[1];
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        isMet[0] = condition.call();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            if (isMet[0]) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("Condition wasn't met in " + TIMEOUT_MILLIS + " ms");
+    }
+
+    private static class RecordingCallback extends DatabaseExecutor.Callback<String> {
+
+        private final List<String> mDelivered;
+        private final boolean[] mIsOnMainLooper;
+
+        RecordingCallback(List<String> delivered, boolean[] isOnMainLooper) {
+            mDelivered = delivered;
+            mIsOnMainLooper = isOnMainLooper;
+        }
+
+        @Override
+        public void onResult(String result) {
+            mIsOnMainLooper[0] = Looper.myLooper() == Looper.getMainLooper();
+            mDelivered.add(result);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.tomek.notepad;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.MotionEvent;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Frame time of DrawingView while stroke is drawn, when only dirty rectangle is redrawn compared to whole view
+ * Frames are rendered in software, like views are without hardware acceleration, with clip set to invalidated area.
+ * Times are only printed and apply to software rendering only, hardware accelerated rendering ignores
+ * the invalidated rectangle since API 21
+ */
+@RunWith(AndroidJUnit4.class)
+public class DrawingViewBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int POINTS_COUNT = 1000;
+
+    @Test
+    public void shouldShowTheSameStrokeAsWholeViewRedraw() {
+        final Bitmap[] frames = new Bitmap[2];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                frames[0] = drawStroke(10, true).mFrame;
+                frames[1] = drawStroke(10, false).mFrame;
+            }
+        });
+        assertThat(frames[0].sameAs(frames[1]), is(true));
+    }
+
+    @Test
+    public void shouldMeasureFramesOfLongStroke() {
+        measure(10);
+    }
+
+    @Test
+    public void shouldMeasureFramesOfLargeBrush() {
+        measure(50);
+    }
+
+    private void measure(final float brushSize) {
+        final Result[] results = new Result[2];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                results[0] = drawStroke(brushSize, true);
+                results[1] = drawStroke(brushSize, false);
+            }
+        });
+        Result dirty = results[0];
+        Result whole = results[1];
+
+        System.out.println("BENCHMARK stroke of " + POINTS_COUNT + " points, brush " + brushSize + "dp: dirty rect frame="
+                + dirty.getAverageFrameMicros() + "us max=" + dirty.mMaxFrameNanos / 1000 + "us, whole view frame="
+                + whole.getAverageFrameMicros() + "us max=" + whole.mMaxFrameNanos / 1000 + "us");
+    }
+
+    /**
+     * Method used to draw zigzag stroke across the view, frame is rendered after each touch sample
+     * @param isDirtyRect true to redraw only invalidated area, false to redraw whole view
+     */
+    private static Result drawStroke(float brushSize, boolean isDirtyRect) {
+        Context context = InstrumentationRegistry.getTargetContext();
+        RecordingDrawingView view = new RecordingDrawingView(context);
+        view.layout(0, 0, WIDTH, HEIGHT);
+        view.setBrushSize(brushSize);
+
+        Result result = new Result();
+        result.mFrame = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(result.mFrame);
+        view.draw(canvas);
+
+        for (int i = 0; i < POINTS_COUNT; i++) {
+            float x = 100 + (i % 100) * 8;
+            float y = 100 + (i / 100) * 150 + (i % 2) * 20;
+            int action = i == 0 ? MotionEvent.ACTION_DOWN
+                    : i == POINTS_COUNT - 1 ? MotionEvent.ACTION_UP : MotionEvent.ACTION_MOVE;
+            view.mDirty.setEmpty();
+            view.draw(x, y, action);
+
+            long start = System.nanoTime();
+            canvas.save();
+            if (isDirtyRect) {
+                canvas.clipRect(view.mDirty);
+            }
+            // Frame buffer keeps pixels outside of clip, like window does
+            canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+            view.draw(canvas);
+            canvas.restore();
+            long frameNanos = System.nanoTime() - start;
+
+            result.mTotalFrameNanos += frameNanos;
+            result.mMaxFrameNanos = Math.max(result.mMaxFrameNanos, frameNanos);
+        }
+        return result;
+    }
+
+    private static class Result {
+
+        private Bitmap mFrame;
+        private long mTotalFrameNanos;
+        private long mMaxFrameNanos;
+
+        long getAverageFrameMicros() {
+            return mTotalFrameNanos / POINTS_COUNT / 1000;
+        }
+    }
+
+    /**
+     * DrawingView that keeps area it invalidated, it isn't attached so nothing is drawn by itself
+     */
+    private static class RecordingDrawingView extends DrawingView {
+
+        private final Rect mDirty = new Rect();
+
+        RecordingDrawingView(Context context) {
+            super(context, null);
+        }
+
+        @Override
+        public void invalidate(int l, int t, int r, int b) {
+            mDirty.union(l, t, r, b);
+            super.invalidate(l, t, r, b);
+        }
+
+        @Override
+        public void invalidate() {
+            mDirty.set(0, 0, getWidth(), getHeight());
+            super.invalidate();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.tomek.notepad;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Encoding and decoding time and size of ImageCodecs on stroke drawings
+ * Corpus is made of strokes like the ones drawn on notes: a signature, handwritten page and colored sketch
+ * with erased parts, all on canvas of phone screen size. Results are printed, so default codec can be picked on them
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImageCodecBenchmark {
+
+    private static final int CANVAS_WIDTH = 1080;
+    private static final int CANVAS_HEIGHT = 1920;
+    private static final int ROUNDS = 5;
+    private static final int[] COLORS = {Color.BLACK, Color.RED, Color.BLUE, Color.GREEN, Color.YELLOW};
+
+    @Test
+    public void shouldDecodeWhatEveryCodecEncoded() throws IOException {
+        Bitmap[] corpus = createCorpus();
+        for (ImageCodec codec : ImageCodec.values()) {
+            for (Bitmap drawing : corpus) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                assertThat(codec.encode(drawing, bytes), is(true));
+
+                Bitmap decoded = TiledDrawing.read(new ByteArrayInputStream(bytes.toByteArray()));
+                assertThat(decoded.getWidth(), is(drawing.getWidth()));
+                assertThat(decoded.getHeight(), is(drawing.getHeight()));
+                if (codec.isLossless()) {
+                    assertThat(codec.getName(), decoded.sameAs(drawing), is(true));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldEncodeEmptyDrawingThatCanBeSkipped() throws IOException {
+        Bitmap empty = Bitmap.createBitmap(CANVAS_WIDTH, CANVAS_HEIGHT, Bitmap.Config.ARGB_8888);
+        for (ImageCodec codec : ImageCodec.values()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            assertThat(codec.encode(empty, bytes), is(false));
+            assertThat(TiledDrawing.read(new ByteArrayInputStream(bytes.toByteArray())).getWidth(), is(CANVAS_WIDTH));
+        }
+    }
+
+    @Test
+    public void shouldMeasureCodecsOnStrokeDrawings() throws IOException {
+        Bitmap[] corpus = createCorpus();
+        String[] names = {"signature", "handwriting", "sketch"};
+        // Buffer is reused by all rounds, so its growth isn't measured
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(CANVAS_WIDTH * CANVAS_HEIGHT);
+        for (ImageCodec codec : ImageCodec.values()) {
+            for (int i = 0; i < corpus.length; i++) {
+                long start = System.nanoTime();
+                for (int round = 0; round < ROUNDS; round++) {
+                    bytes.reset();
+                    codec.encode(corpus[i], bytes);
+                }
+                long encodeMillis = (System.nanoTime() - start) / 1000000 / ROUNDS;
+                byte[] encoded = bytes.toByteArray();
+
+                start = System.nanoTime();
+                Bitmap decoded = null;
+                for (int round = 0; round < ROUNDS; round++) {
+                    decoded = TiledDrawing.read(new ByteArrayInputStream(encoded));
+                }
+                long decodeMillis = (System.nanoTime() - start) / 1000000 / ROUNDS;
+
+                System.out.println("BENCHMARK " + codec.getName() + " " + names[i] + ": encode=" + encodeMillis
+                        + "ms decode=" + decodeMillis + "ms size=" + encoded.length + " lossless="
+                        + decoded.sameAs(corpus[i]));
+            }
+        }
+    }
+
+    private static Bitmap[] createCorpus() {
+        Random random = new Random(42);
+        return new Bitmap[]{
+                createDrawing(random, 3, 0.3f, false),
+                createDrawing(random, 120, 1, false),
+                createDrawing(random, 40, 1, true)
+        };
+    }
+
+    /**
+     * Method used to draw strokes that wander like hand-drawn ones
+     * @param strokeCount count of strokes
+     * @param coverage part of canvas height strokes are spread over, from the top
+     * @param isSketch true for thick strokes of all colors with some of them erasing, false for thin black ones
+     */
+    private static Bitmap createDrawing(Random random, int strokeCount, float coverage, boolean isSketch) {
+        StrokeDrawing drawing = new StrokeDrawing(CANVAS_WIDTH, CANVAS_HEIGHT);
+        for (int i = 0; i < strokeCount; i++) {
+            float[] points = new float[2 * (20 + random.nextInt(80))];
+            float x = random.nextFloat() * CANVAS_WIDTH;
+            float y = random.nextFloat() * CANVAS_HEIGHT * coverage;
+            float angle = random.nextFloat() * 6.28f;
+            for (int j = 0; j < points.length; j += 2) {
+                angle += (random.nextFloat() - 0.5f) * 0.8f;
+                x = Math.max(0, Math.min(CANVAS_WIDTH, x + 6 * (float) Math.cos(angle)));
+                y = Math.max(0, Math.min(CANVAS_HEIGHT, y + 6 * (float) Math.sin(angle)));
+                points[j] = x;
+                points[j + 1] = y;
+            }
+            int color = isSketch ? COLORS[random.nextInt(COLORS.length)] : Color.BLACK;
+            float width = isSketch ? 15 + random.nextInt(30) : 8;
+            boolean erase = isSketch && random.nextInt(5) == 0;
+            drawing.add(new DrawingView.Stroke(color, width, erase, points, CANVAS_WIDTH, CANVAS_HEIGHT));
+        }
+        return drawing.rasterize();
+    }
+}
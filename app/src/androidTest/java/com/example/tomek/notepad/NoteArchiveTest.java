@@ -0,0 +1,146 @@
+package com.example.tomek.notepad;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.SpannableString;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static junit.framework.Assert.fail;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+@RunWith(AndroidJUnit4.class)
+public class NoteArchiveTest {
+
+    private static final int NOTES_COUNT = 120;
+
+    private Context appContext;
+    private DatabaseHandler databaseHandler;
+
+    @Before
+    public void setup() {
+        appContext = InstrumentationRegistry.getTargetContext();
+        databaseHandler = DatabaseHandler.getInstance(appContext);
+        databaseHandler.clearAllNotes();
+        databaseHandler.clearArchiveImports();
+    }
+
+    @After
+    public void cleanup() {
+        databaseHandler.clearAllNotes();
+        databaseHandler.clearArchiveImports();
+    }
+
+    @Test
+    public void shouldExportAndImportNotes() throws IOException {
+        createNotes();
+        byte[] archive = export();
+        databaseHandler.clearAllNotes();
+
+        int importedCount = new NoteArchive(appContext).importNotes(new ByteArrayInputStream(archive));
+
+        assertThat(importedCount, is(NOTES_COUNT));
+        assertImportedNotes();
+    }
+
+    @Test
+    public void shouldResumeInterruptedImport() throws IOException {
+        createNotes();
+        byte[] archive = export();
+        databaseHandler.clearAllNotes();
+
+        // Archive cut short, i.e. by failed download
+        byte[] truncated = new byte[archive.length * 3 / 4];
+        System.arraycopy(archive, 0, truncated, 0, truncated.length);
+        try {
+            new NoteArchive(appContext).importNotes(new ByteArrayInputStream(truncated));
+            fail("Truncated archive was imported");
+        } catch (IOException e) {
+            // Expected
+        }
+        int partialCount = databaseHandler.getNoteCount();
+        assertThat(partialCount, lessThan(NOTES_COUNT));
+
+        // Notes imported before aren't imported again
+        int importedCount = new NoteArchive(appContext).importNotes(new ByteArrayInputStream(archive));
+
+        assertThat(importedCount, is(NOTES_COUNT - partialCount));
+        assertImportedNotes();
+    }
+
+    @Test
+    public void shouldNotStoreCorruptedDrawing() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(archive);
+        String hash = DrawingStore.toHex(DrawingStore.createDigest().digest(new byte[]{1}));
+        zip.putNextEntry(new ZipEntry(NoteArchive.DIRECTORY_DRAWINGS + "1/" + hash));
+        zip.write(new byte[]{2});
+        zip.closeEntry();
+        zip.close();
+
+        try {
+            new NoteArchive(appContext).importNotes(new ByteArrayInputStream(archive.toByteArray()));
+            fail("Corrupted drawing was imported");
+        } catch (IOException e) {
+            // Expected
+        }
+        File[] files = new File(appContext.getFilesDir(), "drawings").listFiles();
+        assertThat(files == null ? 0 : files.length, is(0));
+    }
+
+    private void createNotes() {
+        Bitmap bmp = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        bmp.eraseColor(Color.BLUE);
+
+        ArrayList<Note> notes = new ArrayList<>();
+        for (int i = 0; i < NOTES_COUNT; i++) {
+            Note note = new Note();
+            note.setTitle("Note " + i);
+            note.setSpannable(new SpannableString("Archived note number " + i));
+            if (i % 10 == 0) {
+                note.setImage(bmp);
+            }
+            notes.add(note);
+        }
+        databaseHandler.createNotes(notes);
+    }
+
+    private byte[] export() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        assertThat(new NoteArchive(appContext).exportNotes(archive), is(NOTES_COUNT));
+        return archive.toByteArray();
+    }
+
+    private void assertImportedNotes() {
+        assertThat(databaseHandler.getNoteCount(), is(NOTES_COUNT));
+        assertThat(databaseHandler.search("archived", NOTES_COUNT), hasSize(NOTES_COUNT));
+
+        int drawingCount = 0;
+        for (NoteSummary summary : databaseHandler.getAllNoteSummaries()) {
+            Note note = databaseHandler.getNote(summary.getId());
+            assertThat(note.getSpannable().toString(), is("Archived note number " + note.getTitle().substring(5)));
+            if (note.getImage() != null) {
+                assertThat(note.getImage().getPixel(0, 0), is(Color.BLUE));
+                drawingCount++;
+            }
+        }
+        assertThat(drawingCount, is(NOTES_COUNT / 10));
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.tomek.notepad;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.style.StyleSpan;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+
+@RunWith(AndroidJUnit4.class)
+public class NoteJournalTest {
+
+    private Context appContext;
+    private DatabaseHandler databaseHandler;
+    private int noteId;
+
+    @Before
+    public void setup() {
+        appContext = InstrumentationRegistry.getTargetContext();
+        databaseHandler = DatabaseHandler.getInstance(appContext);
+        databaseHandler.clearAllNotes();
+
+        Note note = new Note();
+        note.setTitle("Title");
+        note.setSpannable(new SpannableString("Hello world"));
+        noteId = (int) databaseHandler.createNote(note);
+    }
+
+    @After
+    public void cleanup() {
+        getJournalFile().delete();
+        databaseHandler.clearAllNotes();
+    }
+
+    @Test
+    public void shouldReplayJournalOnLoad() {
+        final NoteJournal journal = new NoteJournal(appContext, noteId);
+        record(journal, new Runnable() {
+            @Override
+            public void run() {
+                journal.replaceText(6, 5, "there");
+                journal.setSpan(new StyleSpan(Typeface.BOLD), 0, 5, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                journal.setTitle("New title");
+                journal.onStroke(new DrawingView.Stroke(Color.RED, 10, false, new float[]{0, 0, 40, 40}, 50, 50));
+            }
+        });
+
+        Note note = NoteJournal.load(appContext, noteId);
+
+        assertThat(note.getSpannable().toString(), is("Hello there"));
+        StyleSpan[] spans = note.getSpannable().getSpans(0, note.getSpannable().length(), StyleSpan.class);
+        assertThat(spans.length, is(1));
+        assertThat(note.getSpannable().getSpanEnd(spans[0]), is(5));
+        assertThat(note.getTitle(), is("New title"));
+        assertThat(note.getImage(), notNullValue());
+        assertThat(note.getImage().getPixel(20, 20), is(Color.RED));
+
+        // Notes row is left as it was until journal is compacted
+        assertThat(databaseHandler.getNote(noteId).getTitle(), is("Title"));
+    }
+
+    @Test
+    public void shouldCompactJournalIntoNote() {
+        final NoteJournal journal = new NoteJournal(appContext, noteId);
+        record(journal, new Runnable() {
+            @Override
+            public void run() {
+                journal.replaceText(11, 0, "!");
+                journal.setTitle("New title");
+                journal.commit();
+            }
+        });
+
+        // Waits for compaction, it runs on the same thread
+        NoteJournal.load(appContext, noteId);
+
+        Note note = databaseHandler.getNote(noteId);
+        assertThat(note.getSpannable().toString(), is("Hello world!"));
+        assertThat(note.getTitle(), is("New title"));
+        assertThat(getJournalFile().exists(), is(false));
+    }
+
+    @Test
+    public void shouldIgnoreStaleJournal() throws IOException {
+        final NoteJournal journal = new NoteJournal(appContext, noteId);
+        record(journal, new Runnable() {
+            @Override
+            public void run() {
+                journal.replaceText(11, 0, "!");
+            }
+        });
+        NoteJournal.load(appContext, noteId);
+        byte[] journalBytes = readJournalFile();
+
+        record(journal, new Runnable() {
+            @Override
+            public void run() {
+                journal.commit();
+            }
+        });
+        NoteJournal.load(appContext, noteId);
+
+        // Journal file left behind by process killed right after compaction
+        FileOutputStream stream = new FileOutputStream(getJournalFile());
+        stream.write(journalBytes);
+        stream.close();
+
+        assertThat(NoteJournal.load(appContext, noteId).getSpannable().toString(), is("Hello world!"));
+        assertThat(getJournalFile().exists(), is(false));
+    }
+
+    @Test
+    public void shouldDropJournalOfNoteChangedElsewhere() {
+        final NoteJournal journal = new NoteJournal(appContext, noteId);
+        record(journal, new Runnable() {
+            @Override
+            public void run() {
+                journal.replaceText(11, 0, "!");
+            }
+        });
+        NoteJournal.load(appContext, noteId);
+
+        // Written right after journal was started, base can't be told from row by time of update
+        Note note = databaseHandler.getNote(noteId);
+        note.setSpannable(new SpannableString("Changed"));
+        note.setSpannableChanged(true);
+        databaseHandler.updateNote(note);
+
+        assertThat(NoteJournal.load(appContext, noteId).getSpannable().toString(), is("Changed"));
+        assertThat(getJournalFile().exists(), is(false));
+    }
+
+    @Test
+    public void shouldKeepJournalOfNoteInTrash() throws Exception {
+        long trashId = databaseHandler.trashNotes(noteId);
+        final NoteJournal journal = new NoteJournal(appContext, noteId);
+        record(journal, new Runnable() {
+            @Override
+            public void run() {
+                journal.replaceText(11, 0, "!");
+                journal.commit();
+            }
+        });
+        // Waits for append and compaction, they run on writer thread
+        DatabaseExecutor.getInstance().write(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+        assertThat(getJournalFile().exists(), is(true));
+
+        databaseHandler.restoreTrashedNotes(trashId);
+
+        assertThat(NoteJournal.load(appContext, noteId).getSpannable().toString(), is("Hello world!"));
+    }
+
+    /**
+     * Method used to record edits on main thread like NoteActivity does, and flush them
+     */
+    private static void record(final NoteJournal journal, final Runnable edits) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                edits.run();
+                journal.flush();
+            }
+        });
+    }
+
+    private File getJournalFile() {
+        return new File(new File(appContext.getFilesDir(), "journals"), String.valueOf(noteId));
+    }
+
+    private byte[] readJournalFile() throws IOException {
+        File file = getJournalFile();
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                offset += stream.read(bytes, offset, bytes.length - offset);
+            }
+        } finally {
+            stream.close();
+        }
+        return bytes;
+    }
+}
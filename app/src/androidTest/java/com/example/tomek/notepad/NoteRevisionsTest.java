@@ -0,0 +1,233 @@
+package com.example.tomek.notepad;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.SpannableString;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+@RunWith(AndroidJUnit4.class)
+public class NoteRevisionsTest {
+
+    private static final int EDITS_COUNT = 25;
+    private static final int SQUARE_SIZE = 10;
+
+    private DatabaseHandler databaseHandler;
+
+    @Before
+    public void setup() {
+        Context appContext = InstrumentationRegistry.getTargetContext();
+        databaseHandler = DatabaseHandler.getInstance(appContext);
+        databaseHandler.clearAllNotes();
+    }
+
+    @After
+    public void cleanup() {
+        databaseHandler.clearAllNotes();
+    }
+
+    @Test
+    public void shouldReconstructAndRestoreRevisions() {
+        int noteId = createNote(getVersionText(0), null);
+        for (int version = 1; version <= EDITS_COUNT; version++) {
+            updateNote(noteId, "Title " + version, getVersionText(version), null);
+        }
+
+        ArrayList<NoteRevision> revisions = databaseHandler.getRevisions(noteId);
+        assertThat(revisions, hasSize(EDITS_COUNT));
+        for (int i = 0; i < revisions.size(); i++) {
+            // Newest revision first, it's the version before the last update
+            int version = EDITS_COUNT - 1 - i;
+            Note revision = databaseHandler.getRevision(revisions.get(i).getId());
+            assertThat(revision.getSpannable().toString(), is(getVersionText(version)));
+            assertThat(revision.getTitle(), is("Title " + version));
+        }
+
+        databaseHandler.restoreRevision(revisions.get(EDITS_COUNT - 4).getId());
+
+        Note note = databaseHandler.getNote(noteId);
+        assertThat(note.getSpannable().toString(), is(getVersionText(3)));
+        assertThat(note.getTitle(), is("Title 3"));
+        // Version replaced by restore is kept too
+        revisions = databaseHandler.getRevisions(noteId);
+        assertThat(revisions, hasSize(EDITS_COUNT + 1));
+        assertThat(databaseHandler.getRevision(revisions.get(0).getId()).getSpannable().toString(),
+                is(getVersionText(EDITS_COUNT)));
+    }
+
+    @Test
+    public void shouldKeepChangedTilesOfDrawing() {
+        Bitmap drawing = Bitmap.createBitmap(512, 512, Bitmap.Config.ARGB_8888);
+        drawing.eraseColor(Color.WHITE);
+        int noteId = createNote("Drawing", drawing);
+        int fullDrawingBytes = drawing.getByteCount() / 100;
+
+        for (int version = 1; version <= EDITS_COUNT; version++) {
+            drawing = drawing.copy(Bitmap.Config.ARGB_8888, true);
+            drawSquare(drawing, version);
+            updateNote(noteId, "Title", "Drawing", drawing);
+        }
+
+        ArrayList<NoteRevision> revisions = databaseHandler.getRevisions(noteId);
+        assertThat(revisions, hasSize(EDITS_COUNT));
+        for (int i = 0; i < revisions.size(); i++) {
+            int version = EDITS_COUNT - 1 - i;
+            Bitmap image = databaseHandler.getRevision(revisions.get(i).getId()).getImage();
+            for (int square = 1; square <= EDITS_COUNT; square++) {
+                assertThat(image.getPixel(getSquareX(square), getSquareY(square)),
+                        is(square <= version ? Color.RED : Color.WHITE));
+            }
+            // Only the tile touched by the square is kept, keyframes reference the drawing file
+            assertThat(revisions.get(i).getStoredBytes(), lessThan((long) fullDrawingBytes));
+        }
+    }
+
+    @Test
+    public void shouldKeepDrawingWhenUpdateIsRolledBack() {
+        Bitmap drawing = Bitmap.createBitmap(512, 512, Bitmap.Config.ARGB_8888);
+        drawSquare(drawing, 1);
+        int noteId = createNote("Drawing", drawing);
+        for (int version = 2; version <= 3; version++) {
+            drawing = drawing.copy(Bitmap.Config.ARGB_8888, true);
+            drawSquare(drawing, version);
+            updateNote(noteId, "Title", "Drawing", drawing);
+        }
+
+        SQLiteDatabase db = databaseHandler.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            // Releases drawing of the note and drawings of revisions trimmed by updates
+            databaseHandler.deleteNote(noteId);
+        } finally {
+            db.endTransaction();
+        }
+        Bitmap image = databaseHandler.getNote(noteId).getImage();
+        assertThat(image.getPixel(getSquareX(3), getSquareY(3)), is(Color.RED));
+        ArrayList<NoteRevision> revisions = databaseHandler.getRevisions(noteId);
+        assertThat(databaseHandler.getRevision(revisions.get(revisions.size() - 1).getId()).getImage()
+                .getPixel(getSquareX(2), getSquareY(2)), is(0));
+
+        db.beginTransaction();
+        try {
+            drawing = drawing.copy(Bitmap.Config.ARGB_8888, true);
+            drawSquare(drawing, 4);
+            updateNote(noteId, "Title", "Drawing", drawing);
+        } finally {
+            db.endTransaction();
+        }
+        assertThat(databaseHandler.getNote(noteId).getImage().getPixel(getSquareX(4), getSquareY(4)), is(0));
+
+        // File stored by rolled back update is deleted after next write, only drawing of the note is left
+        createNote("Other", null);
+        File[] files = new File(InstrumentationRegistry.getTargetContext().getFilesDir(), "drawings").listFiles();
+        assertThat(files.length, is(1));
+    }
+
+    @Test
+    public void shouldGrowStorageSublinearly() {
+        String text = createText(5000);
+        int noteId = createNote(text, null);
+        long fullTextBytes = SpanCodec.encode(new SpannableString(text)).length;
+
+        Random random = new Random(42);
+        long[] revisionBytes = new long[DatabaseHandler.MAX_REVISIONS * 2 + 1];
+        String previousText = text;
+        for (int edit = 1; edit < revisionBytes.length; edit++) {
+            previousText = text;
+            int position = random.nextInt(text.length());
+            text = text.substring(0, position) + " edit" + edit + text.substring(position);
+            updateNote(noteId, "Title", text, null);
+            revisionBytes[edit] = getRevisionBytes(noteId);
+        }
+
+        // Each revision costs a fraction of full copy of the note
+        int edits = DatabaseHandler.MAX_REVISIONS;
+        assertThat(revisionBytes[edits], lessThan(edits * fullTextBytes / 4));
+        // Storage stops growing once oldest revisions are dropped
+        assertThat(databaseHandler.getRevisions(noteId), hasSize(DatabaseHandler.MAX_REVISIONS));
+        assertThat(revisionBytes[edits * 2], lessThan(revisionBytes[edits] * 3 / 2));
+        assertThat(databaseHandler.getRevision(databaseHandler.getRevisions(noteId).get(0).getId()).getSpannable().toString(),
+                is(previousText));
+    }
+
+    private int createNote(String text, Bitmap image) {
+        Note note = new Note();
+        note.setTitle("Title 0");
+        note.setSpannable(new SpannableString(text));
+        note.setImage(image);
+        return (int) databaseHandler.createNote(note);
+    }
+
+    private void updateNote(int noteId, String title, String text, Bitmap image) {
+        Note note = databaseHandler.getNote(noteId);
+        note.setTitle(title);
+        note.setSpannable(new SpannableString(text));
+        note.setTitleChanged(true);
+        note.setSpannableChanged(true);
+        if (image != null) {
+            note.setImage(image);
+            note.setImageChanged(true);
+        }
+        databaseHandler.updateNote(note);
+    }
+
+    private long getRevisionBytes(int noteId) {
+        for (StorageStats.NoteSize size : databaseHandler.getStorageStats().getNoteSizes()) {
+            if (size.getNoteId() == noteId) {
+                return size.getRevisionBytes();
+            }
+        }
+        return 0;
+    }
+
+    private static String getVersionText(int version) {
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; line <= version; line++) {
+            text.append("Line ").append(line).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String createText(int length) {
+        Random random = new Random(7);
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append("word").append(random.nextInt(1000)).append(' ');
+        }
+        return text.toString();
+    }
+
+    private static void drawSquare(Bitmap drawing, int version) {
+        Paint paint = new Paint();
+        paint.setColor(Color.RED);
+        int x = getSquareX(version);
+        int y = getSquareY(version);
+        new Canvas(drawing).drawRect(x, y, x + SQUARE_SIZE, y + SQUARE_SIZE, paint);
+    }
+
+    private static int getSquareX(int version) {
+        return (version % 5) * 100 + 5;
+    }
+
+    private static int getSquareY(int version) {
+        return (version / 5) * 100 + 5;
+    }
+}
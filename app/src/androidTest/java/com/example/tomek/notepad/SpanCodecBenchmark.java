@@ -0,0 +1,122 @@
+package com.example.tomek.notepad;
+
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.Html;
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StyleSpan;
+import android.text.style.UnderlineSpan;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * Encoding and decoding time of SpanCodec compared to HTML converters used before
+ */
+@RunWith(AndroidJUnit4.class)
+public class SpanCodecBenchmark {
+
+    private static final int PARAGRAPHS = 500;
+    private static final int ROUNDS = 20;
+
+    @Test
+    public void shouldKeepTextAndSpans() {
+        Spannable note = createFormattedNote(20);
+
+        Spannable decoded = SpanCodec.decode(SpanCodec.encode(note));
+
+        assertThat(decoded.toString(), is(note.toString()));
+        assertSameSpans(decoded, note, StyleSpan.class);
+        assertSameSpans(decoded, note, UnderlineSpan.class);
+        assertSameSpans(decoded, note, ForegroundColorSpan.class);
+    }
+
+    @Test
+    public void shouldDecodeTextFromPrefix() {
+        Spannable note = new SpannableString("Za\u017c\u00f3\u0142\u0107 g\u0119\u015bl\u0105 ja\u017a\u0144");
+        byte[] encoded = SpanCodec.encode(note);
+
+        for (int length = 2; length <= encoded.length; length++) {
+            byte[] prefix = new byte[length];
+            System.arraycopy(encoded, 0, prefix, 0, length);
+            assertThat(note.toString().startsWith(SpanCodec.decodeText(prefix)), is(true));
+        }
+        assertThat(SpanCodec.decodeText(encoded), is(note.toString()));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void shouldEncodeAndDecodeFasterThanHtml() {
+        Spannable note = createFormattedNote(PARAGRAPHS);
+
+        long start = System.nanoTime();
+        String html = null;
+        for (int i = 0; i < ROUNDS; i++) {
+            html = Html.toHtml(note);
+        }
+        long htmlEncodeMillis = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            new SpannableString(Html.fromHtml(html));
+        }
+        long htmlDecodeMillis = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        byte[] encoded = null;
+        for (int i = 0; i < ROUNDS; i++) {
+            encoded = SpanCodec.encode(note);
+        }
+        long codecEncodeMillis = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            SpanCodec.decode(encoded);
+        }
+        long codecDecodeMillis = (System.nanoTime() - start) / 1000000;
+
+        System.out.println("BENCHMARK " + note.length() + " chars, " + ROUNDS + " rounds: html encode="
+                + htmlEncodeMillis + "ms decode=" + htmlDecodeMillis + "ms size=" + html.length()
+                + ", codec encode=" + codecEncodeMillis + "ms decode=" + codecDecodeMillis + "ms size=" + encoded.length);
+
+        assertThat(codecEncodeMillis, lessThan(htmlEncodeMillis));
+        assertThat(codecDecodeMillis, lessThan(htmlDecodeMillis));
+    }
+
+    private static Spannable createFormattedNote(int paragraphs) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < paragraphs; i++) {
+            text.append("Paragraph ").append(i).append(" with bold, italic, underlined and colored words.\n");
+        }
+        SpannableString note = new SpannableString(text);
+
+        int paragraphStart = 0;
+        for (int i = 0; i < paragraphs; i++) {
+            int paragraphEnd = text.indexOf("\n", paragraphStart);
+            note.setSpan(new StyleSpan(Typeface.BOLD), paragraphStart + 14, paragraphStart + 18, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            note.setSpan(new StyleSpan(Typeface.ITALIC), paragraphStart + 20, paragraphStart + 26, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            note.setSpan(new UnderlineSpan(), paragraphStart + 28, paragraphStart + 38, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            note.setSpan(new ForegroundColorSpan(Color.RED), paragraphStart + 43, paragraphEnd, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            paragraphStart = paragraphEnd + 1;
+        }
+        return note;
+    }
+
+    private static void assertSameSpans(Spanned actual, Spanned expected, Class<?> type) {
+        Object[] actualSpans = actual.getSpans(0, actual.length(), type);
+        Object[] expectedSpans = expected.getSpans(0, expected.length(), type);
+        assertThat(actualSpans.length, is(expectedSpans.length));
+        for (int i = 0; i < expectedSpans.length; i++) {
+            assertThat(actual.getSpanStart(actualSpans[i]), is(expected.getSpanStart(expectedSpans[i])));
+            assertThat(actual.getSpanEnd(actualSpans[i]), is(expected.getSpanEnd(expectedSpans[i])));
+        }
+    }
+}
@@ -1,26 +1,72 @@
 package com.example.tomek.notepad;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 public final class BitmapConverter {
 
+    private static final int BUFFER_SIZE = 8192;
+    // Encoded stroke drawings are rarely bigger than this part of their pixels, so buffer seldom grows
+    private static final int ESTIMATED_COMPRESSION_RATIO = 16;
+
     private BitmapConverter() throws InstantiationException {
         throw new InstantiationException("This class is not for instantiation");
     }
 
-    // convert from bitmap to byte array
+    // convert from bitmap to PNG byte array, format of drawings kept in notes table by older versions
     public static byte[] getBytes(Bitmap bitmap) {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 0, stream);
+        return getBytes(bitmap, ImageCodec.PNG);
+    }
+
+    // convert from bitmap to byte array in given format, buffer is sized up front
+    public static byte[] getBytes(Bitmap bitmap, ImageCodec codec) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(
+                Math.max(BUFFER_SIZE, bitmap.getByteCount() / ESTIMATED_COMPRESSION_RATIO));
+        try {
+            codec.encode(bitmap, stream);
+        } catch (IOException e) {
+            // Stream is backed by memory only
+            throw new IllegalStateException(e);
+        }
         return stream.toByteArray();
     }
 
-    // convert from byte array to bitmap
+    // convert from bitmap straight to stream in given format
+    public static void writeBytes(Bitmap bitmap, ImageCodec codec, OutputStream stream) throws IOException {
+        codec.encode(bitmap, stream);
+    }
+
+    // convert from byte array in any format written by ImageCodec to bitmap
     public static Bitmap getImage(byte[] image) {
-        return BitmapFactory.decodeByteArray(image, 0, image.length);
+        try {
+            return TiledDrawing.read(new ByteArrayInputStream(image));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // convert from file written by TiledDrawing or PNG file to bitmap, file is streamed so encoded bytes are never held in memory
+    public static Bitmap getImage(File file) {
+        try {
+            InputStream stream = new BufferedInputStream(new FileInputStream(file));
+            try {
+                return TiledDrawing.read(stream);
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
     }
 
 }
@@ -0,0 +1,217 @@
+package com.example.tomek.notepad;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Memory-bounded pool of mutable drawing-sized bitmaps, used so opening note or rotating screen
+ * doesn't allocate new screen-sized bitmaps each time
+ *
+ * Bitmaps are given back by DrawingView when it stops showing them and taken by decoders and rasterizers.
+ * Pooled bitmap of the same size is taken first, bigger one is reconfigured to needed size if it isn't much bigger,
+ * i.e. bitmap of portrait canvas is reused for landscape one. Oldest bitmaps are dropped when pool is over its cap.
+ * Bitmap given to put() mustn't be used by its caller anymore.
+ */
+public class BitmapPool {
+
+    // Part of heap the pool can use
+    private static final int HEAP_DIVISOR = 16;
+    // Pooled bitmap is reused for size that needs at least this part of its memory
+    private static final int MAX_WASTE_RATIO = 2;
+    // Enough for headers of PNG and WebP, decoding bounds doesn't read pixels
+    private static final int BOUNDS_READ_LIMIT = 64 * 1024;
+
+    private static BitmapPool sInstance;
+
+    // Oldest first
+    private final ArrayList<Bitmap> bitmaps = new ArrayList<>();
+    private final long maxBytes;
+    private long bytes;
+
+    // Metrics, guarded by this
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * @param maxBytes max count of bytes used by pooled bitmaps
+     */
+    BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Method used to get shared BitmapPool, sized by heap available to the app
+     * @return process-wide BitmapPool
+     */
+    public static synchronized BitmapPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new BitmapPool(Runtime.getRuntime().maxMemory() / HEAP_DIVISOR);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Method used to get empty mutable bitmap, pooled one if there is any that fits
+     * @return transparent ARGB_8888 Bitmap of given size
+     */
+    public Bitmap get(int width, int height) {
+        Bitmap bitmap = take(width, height);
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        bitmap.eraseColor(0);
+        return bitmap;
+    }
+
+    /**
+     * Method used to get mutable copy of bitmap, it's drawn into pooled bitmap if there is any that fits
+     */
+    public Bitmap getCopy(Bitmap source) {
+        Bitmap copy = get(source.getWidth(), source.getHeight());
+        // Drawn over transparent pixels, so they're copied as they are
+        new Canvas(copy).drawBitmap(source, 0, 0, null);
+        return copy;
+    }
+
+    /**
+     * Method used to decode PNG or WebP into pooled bitmap, so no new pixels are allocated if one fits
+     * @param stream stream of encoded drawing supporting mark(), it isn't closed
+     * @return decoded mutable Bitmap, null if stream can't be decoded
+     */
+    public Bitmap decode(InputStream stream) throws IOException {
+        stream.mark(BOUNDS_READ_LIMIT);
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeStream(stream, null, bounds);
+        stream.reset();
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inBitmap = take(bounds.outWidth, bounds.outHeight);
+        return BitmapFactory.decodeStream(stream, null, options);
+    }
+
+    /**
+     * Method used to give bitmap back to the pool
+     * @param bitmap bitmap caller won't use anymore, immutable and recycled ones are ignored
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled()
+                || bitmap.getConfig() != Bitmap.Config.ARGB_8888 || bitmap.getAllocationByteCount() > maxBytes
+                || bitmaps.contains(bitmap)) {
+            return;
+        }
+        bitmaps.add(bitmap);
+        bytes += bitmap.getAllocationByteCount();
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * Method used to free memory when system asks for it, called by activities
+     * @param level level passed to onTrimMemory()
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // Drawings aren't shown anymore, no note is going to be opened soon
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            synchronized (this) {
+                trimToSize(maxBytes / 2);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * @return count of bitmaps requested that were taken from the pool
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return count of bitmaps requested that had to be allocated
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return count of bitmaps dropped because pool was over its cap
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return count of bytes used by pooled bitmaps
+     */
+    public synchronized long getSize() {
+        return bytes;
+    }
+
+    public long getMaxSize() {
+        return maxBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long requests = hitCount + missCount;
+        return "BitmapPool{hits=" + hitCount + ", misses=" + missCount
+                + ", hitRate=" + (requests > 0 ? 100 * hitCount / requests : 0) + "%, evictions=" + evictionCount
+                + ", bytes=" + bytes + "/" + maxBytes + "}";
+    }
+
+    /**
+     * Method used to take pooled bitmap that fits given size, it's reconfigured to the size
+     * @return pooled Bitmap with undefined pixels, null if none fits
+     */
+    private synchronized Bitmap take(int width, int height) {
+        long needed = 4L * width * height;
+        int index = -1;
+        // Newest first, bitmap of the same size wins
+        for (int i = bitmaps.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = bitmaps.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                index = i;
+                break;
+            }
+            int allocated = bitmap.getAllocationByteCount();
+            if (index == -1 && allocated >= needed && allocated <= MAX_WASTE_RATIO * needed) {
+                index = i;
+            }
+        }
+        if (index == -1) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        Bitmap bitmap = bitmaps.remove(index);
+        bytes -= bitmap.getAllocationByteCount();
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+        }
+        return bitmap;
+    }
+
+    private void trimToSize(long size) {
+        while (bytes > size && !bitmaps.isEmpty()) {
+            bytes -= bitmaps.remove(0).getAllocationByteCount();
+            evictionCount++;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.tomek.notepad;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Expensive part of schema upgrade that rewrites data of existing notes
+ * onUpgrade() only schedules it, rows are migrated later in batches by MigrationRunner.
+ * Batches run in their own transactions together with saving checkpoint, so migration resumes where it stopped.
+ * Migrating single row has to be repeatable, notes can be written by app while migration runs.
+ */
+abstract class DataMigration {
+
+    private final String mName;
+
+    DataMigration(String name) {
+        mName = name;
+    }
+
+    /**
+     * @return name under which migration's checkpoint is kept
+     */
+    String getName() {
+        return mName;
+    }
+
+    /**
+     * @return columns of notes table read by migrate(), first of them has to be KEY_ID
+     */
+    abstract String[] getColumns();
+
+    /**
+     * @return selection of rows that still have to be migrated, null if all rows have to be
+     */
+    String getSelection() {
+        return null;
+    }
+
+    /**
+     * Method used to migrate single batch of rows
+     * Called inside transaction that saves the checkpoint
+     * @param db database to write to
+     * @param rows rows of batch, ordered by KEY_ID
+     */
+    abstract void migrate(SQLiteDatabase db, Cursor rows);
+}
@@ -0,0 +1,246 @@
+package com.example.tomek.notepad;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class used to run all database work off main thread
+ *
+ * Mutations run in order on single writer thread, so writes never wait for each other's locks
+ * and work queued later sees everything queued before it. Reads run on small pool of reader threads,
+ * with write-ahead logging they don't wait for the writer. Results are delivered to Callbacks on main thread.
+ * DatabaseHandler refuses to be used on main thread, so UI can't block on disk by accident.
+ */
+public class DatabaseExecutor {
+
+    /**
+     * Callback of database task, called on main thread
+     * Isn't called at all if Future returned with it was cancelled
+     */
+    public abstract static class Callback<T> {
+        /**
+         * Called with result of task that finished normally
+         */
+        public abstract void onResult(T result);
+
+        /**
+         * Called with exception thrown by task, logs it by default
+         */
+        public void onError(Exception e) {
+            Log.e(TAG, "Database task failed", e);
+        }
+    }
+
+    private static final String TAG = "DatabaseExecutor";
+
+    // SQLite keeps few connections in write-ahead logging mode, more readers would only wait for them
+    private static final int READER_COUNT = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static DatabaseExecutor sInstance;
+
+    private final ScheduledThreadPoolExecutor writer;
+    private final ThreadPoolExecutor readers;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Set when writer thread starts, used to catch blocking waits that would deadlock
+    private volatile Thread writerThread;
+
+    private DatabaseExecutor() {
+        writer = new ScheduledThreadPoolExecutor(1, new BackgroundThreadFactory("DatabaseWriter", true));
+        readers = new ThreadPoolExecutor(READER_COUNT, READER_COUNT, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new BackgroundThreadFactory("DatabaseReader", false));
+        readers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Method used to get shared DatabaseExecutor
+     * @return process-wide DatabaseExecutor
+     */
+    public static synchronized DatabaseExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new DatabaseExecutor();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Method used to run query on reader thread
+     * @param task query, mustn't change the database
+     * @param callback callback called with result on main thread, can be null
+     * @return Future of the result, cancelling it stops callback from being called
+     */
+    public <T> Future<T> read(Callable<T> task, Callback<T> callback) {
+        CallbackTask<T> future = new CallbackTask<>(task, callback);
+        readers.execute(future);
+        return future;
+    }
+
+    /**
+     * Method used to run query on reader thread once all tasks queued on writer before it are done
+     * Only empty barrier waits in writer's queue, so the query doesn't hold up writes queued after it
+     * @param task query that has to see earlier writes, i.e. of note journal. Mustn't change the database
+     * @param callback callback called with result on main thread, can be null
+     * @return Future of the result, cancelling it stops callback from being called
+     */
+    public <T> Future<T> readAfterWrites(Callable<T> task, Callback<T> callback) {
+        final CallbackTask<T> future = new CallbackTask<>(task, callback);
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!future.isCancelled()) {
+                    readers.execute(future);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Method used to run task on writer thread, after all tasks queued before it
+     * @param task task that changes the database
+     * @param callback callback called with result on main thread, can be null
+     * @return Future of the result, cancelling it stops callback from being called
+     */
+    public <T> Future<T> write(Callable<T> task, Callback<T> callback) {
+        CallbackTask<T> future = new CallbackTask<>(task, callback);
+        writer.execute(future);
+        return future;
+    }
+
+    /**
+     * Method used to run task on writer thread, after all tasks queued before it
+     * Exception thrown by task is logged
+     * @param task task that changes the database
+     * @return Future of the task
+     */
+    public Future<?> write(Runnable task) {
+        return write(Executors.callable(task), null);
+    }
+
+    /**
+     * Method used to run task on writer thread after delay
+     * It's ordered by time it becomes due, not by time it was queued
+     * @param task task that changes the database
+     * @param delayMillis time to wait before the task is queued
+     * @return ScheduledFuture of the task
+     */
+    public ScheduledFuture<?> scheduleWrite(Runnable task, long delayMillis) {
+        return writer.schedule(new CallbackTask<>(Executors.callable(task), null), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return true if called on writer thread, where waiting for other writes would deadlock
+     */
+    public boolean isWriterThread() {
+        return Thread.currentThread() == writerThread;
+    }
+
+    /**
+     * FutureTask that posts its result to Callback on main thread
+     */
+    private class CallbackTask<T> extends FutureTask<T> {
+
+        private final Callback<T> mCallback;
+        // Set by cancel(), result that's ready already isn't delivered either
+        private volatile boolean mIsCancelled;
+
+        CallbackTask(Callable<T> task, Callback<T> callback) {
+            super(task);
+            mCallback = callback;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            mIsCancelled = true;
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        protected void done() {
+            if (mIsCancelled) {
+                return;
+            }
+            if (mCallback == null) {
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException | CancellationException e) {
+                    Log.e(TAG, "Database task failed", e);
+                }
+                return;
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver();
+                }
+            });
+        }
+
+        private void deliver() {
+            if (mIsCancelled) {
+                return;
+            }
+            T result;
+            try {
+                result = get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    // Crash like task would on calling thread
+                    throw (Error) cause;
+                }
+                mCallback.onError((Exception) cause);
+                return;
+            } catch (InterruptedException | CancellationException e) {
+                return;
+            }
+            mCallback.onResult(result);
+        }
+    }
+
+    /**
+     * Creates named threads with background priority, so database work doesn't compete with UI
+     */
+    private class BackgroundThreadFactory implements ThreadFactory {
+
+        private final String mName;
+        private final boolean mIsWriter;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        BackgroundThreadFactory(String name, boolean isWriter) {
+            mName = name;
+            mIsWriter = isWriter;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, mName + "-" + mCount.incrementAndGet());
+            if (mIsWriter) {
+                writerThread = thread;
+            }
+            return thread;
+        }
+    }
+}
@@ -7,18 +7,37 @@ import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.graphics.Bitmap;
+import android.graphics.Typeface;
+import android.os.Looper;
 import android.text.Html;
 import android.text.Spannable;
 import android.text.SpannableString;
 import android.text.Spanned;
 import android.text.SpannedString;
+import android.text.TextUtils;
+import android.text.style.StyleSpan;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * DatabaseHandler class used for Creating, Accessing and Modifying SQLite Database
@@ -27,18 +46,204 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 
     // TODO: Try not to exec SQL directly, prevent from SQL injects
 
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 14;
     private static final String DATABASE_NAME = "notepadDatabase";
     private static final String TABLE_NOTES = "notes";
     private static final String KEY_ID = "id";
     private static final String KEY_NOTE_TITLE = "noteTitle";
-    private static final String KEY_SPANNABLE_NOTE = "serializedSpannableNote";
+    private static final String KEY_SPANNABLE_NOTE_ENCODED = "encodedSpannableNote";
+    private static final String KEY_PREVIEW = "preview";
+    private static final String KEY_CHARACTER_COUNT = "characterCount";
+    private static final String KEY_IMAGE_HASH = "imageHash";
+    private static final String INDEX_IMAGE_HASH = "notesImageHashIndex";
+    private static final String KEY_DATE_UPDATED = "dateUpdatedMillis";
+    private static final String INDEX_DATE_UPDATED = "notesDateUpdatedIndex";
+
+    // Time note was moved to trash, null for notes that aren't in trash
+    // Notes trashed together share the value, it identifies them when they're restored
+    private static final String KEY_DELETED = "deletedAtMillis";
+    private static final String INDEX_DELETED = "notesDeletedIndex";
+    // Selection of notes that aren't in trash, every query of notes shown to user has to use it
+    private static final String NOT_DELETED = KEY_DELETED + " IS NULL";
+
+    // Counter increased by every change of note, tells NoteCache if cached note is current
+    // and NoteJournal if journal was made on top of the row as it's now
+    // Moving note to trash and back and migrations that only change how note is stored don't change the note,
+    // so they don't increase it
+    private static final String KEY_VERSION = "version";
+    // Assignment every UPDATE that changes note has to include
+    private static final String INCREMENT_VERSION = KEY_VERSION + " = " + KEY_VERSION + " + 1";
+    // Trigger that increased KEY_VERSION in database version 13, it wrote every updated row twice
+    private static final String TRIGGER_VERSION = "notesVersionTrigger";
+
+    // Full-text search index of notes, row's docid is KEY_ID of indexed note
+    private static final String TABLE_SEARCH = "notesSearch";
+    private static final String KEY_SEARCH_TITLE = "title";
+    private static final String KEY_SEARCH_TEXT = "plainText";
+    private static final String TRIGGER_SEARCH_DELETE = "notesSearchDeleteTrigger";
+
+    // Weights of TABLE_SEARCH columns used to rank search results
+    private static final double[] SEARCH_COLUMN_WEIGHTS = {2.0, 1.0};
+    // Count of words around matches shown in search result snippet
+    private static final int SEARCH_SNIPPET_WORDS = 12;
+    // Characters that mark highlighted parts of snippet, they never occur in notes
+    private static final String SNIPPET_HIGHLIGHT_START = "\u0001";
+    private static final String SNIPPET_HIGHLIGHT_END = "\u0002";
+
+    // Checkpoints of scheduled DataMigrations, row is deleted when its migration is done
+    private static final String TABLE_MIGRATIONS = "dataMigrations";
+    private static final String KEY_MIGRATION_NAME = "name";
+    private static final String KEY_MIGRATION_LAST_ID = "lastId";
+
+    // Checksums of NoteArchive records imported by unfinished import, cleared when import succeeds
+    private static final String TABLE_ARCHIVE_IMPORTS = "archiveImports";
+    private static final String KEY_ARCHIVE_CHECKSUM = "checksum";
+
+    // Earlier versions of notes, newest revision is stored as delta from the notes row
+    // and each older one as delta from revision saved after it, keyframes are stored whole
+    // Also has KEY_ID, KEY_NOTE_TITLE, KEY_DATE_UPDATED and KEY_IMAGE_HASH (drawing of DRAWING_REFERENCE revision)
+    private static final String TABLE_REVISIONS = "revisions";
+    private static final String KEY_REVISION_NOTE_ID = "noteId";
+    private static final String KEY_REVISION_KEYFRAME = "isKeyframe";
+    private static final String KEY_REVISION_TEXT = "text";
+    private static final String KEY_REVISION_DRAWING_MODE = "drawingMode";
+    private static final String KEY_REVISION_DRAWING_DELTA = "drawingDelta";
+    private static final String INDEX_REVISIONS_NOTE = "revisionsNoteIndex";
+    private static final String INDEX_REVISIONS_IMAGE_HASH = "revisionsImageHashIndex";
+
+    // Values of KEY_REVISION_DRAWING_MODE: drawing is the same as in next revision,
+    // drawing is referenced by KEY_IMAGE_HASH (null when there was none), or TileDelta from next revision's drawing
+    private static final int DRAWING_UNCHANGED = 0;
+    private static final int DRAWING_REFERENCE = 1;
+    private static final int DRAWING_TILES = 2;
+
+    // Every KEYFRAME_INTERVAL-th revision of note is stored whole, so at most that many deltas are applied
+    private static final int KEYFRAME_INTERVAL = 10;
+    // Oldest revisions of note above this count are deleted
+    static final int MAX_REVISIONS = 50;
+    // Reconstruction of revision is repeated at most this many times when the note is updated meanwhile
+    private static final int MAX_REVISION_READ_ATTEMPTS = 3;
+    // Bytes used by revision row, drawing files aren't included
+    private static final String REVISION_BYTES = "LENGTH(" + KEY_REVISION_TEXT + ") + IFNULL(LENGTH("
+            + KEY_REVISION_DRAWING_DELTA + "), 0)";
+
+    // Names of DataMigrations
+    private static final String MIGRATION_LEGACY_DATES = "legacyDates";
+    private static final String MIGRATION_SEARCH_INDEX = "searchIndex";
+    private static final String MIGRATION_LEGACY_DRAWINGS = "legacyDrawings";
+    private static final String MIGRATION_LEGACY_SPANNABLES = "legacySpannables";
+    private static final String MIGRATION_PREVIEWS = "previews";
+
+    // Encoded drawing kept in the row up to version 5, replaced by KEY_IMAGE_HASH
+    // Legacy drawings are moved out to DrawingStore by MIGRATION_LEGACY_DRAWINGS
     private static final String KEY_IMAGE = "image";
-    private static final String KEY_DATE_UPDATED = "dateUpdated";
-    private static final DateFormat dt = new SimpleDateFormat("dd.MM.yyyy, hh:mm:ss", Locale.getDefault());
 
-    public DatabaseHandler(Context context) {
+    // HTML of formatted text written up to version 6, replaced by KEY_SPANNABLE_NOTE_ENCODED
+    // Legacy rows are converted by MIGRATION_LEGACY_SPANNABLES, or by getNote() if they're loaded first
+    private static final String KEY_SPANNABLE_NOTE = "serializedSpannableNote";
+
+    // Formatted date column used up to version 3, replaced by KEY_DATE_UPDATED
+    private static final String KEY_DATE_UPDATED_LEGACY = "dateUpdated";
+    private static final String DATE_FORMAT_LEGACY = "dd.MM.yyyy, hh:mm:ss";
+
+    // Max length of plain text preview kept in KEY_PREVIEW and shown on notes list
+    private static final int PREVIEW_LENGTH = 200;
+    private static final String ALIAS_HAS_DRAWING = "hasDrawing";
+
+    // Order of notes list, recently updated notes first. Matches INDEX_DATE_UPDATED
+    private static final String LIST_ORDER = KEY_DATE_UPDATED + " DESC, " + KEY_ID + " DESC";
+    private static final String REVERSED_LIST_ORDER = KEY_DATE_UPDATED + " ASC, " + KEY_ID + " ASC";
+
+    // Value of auto_vacuum pragma that lets runMaintenance() give free pages back to file system
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // Unreferenced drawing files at least this old are deleted by runMaintenance(),
+    // younger ones may be stored by NoteArchive import that didn't insert its notes yet
+    private static final long ORPHAN_DRAWING_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    // Process-wide instance, shared by all activities and background tasks
+    private static DatabaseHandler sInstance;
+
+    // Files of drawings referenced by KEY_IMAGE_HASH
+    private final DrawingStore drawingStore;
+
+    // Hashes of drawings released or stored by transactions, checked by deleteUnreferencedDrawings() after they end
+    private final Set<String> drawingsToCheck = Collections.synchronizedSet(new HashSet<String>());
+
+    // Decoded notes returned by getNote()
+    private final NoteCache noteCache = NoteCache.create();
+
+    // Migrations that can be scheduled by onUpgrade(), by name
+    private final HashMap<String, DataMigration> dataMigrations = new HashMap<>();
+
+    private DatabaseHandler(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        drawingStore = new DrawingStore(context);
+        // Readers don't wait for writers and each reader thread gets its own connection
+        setWriteAheadLoggingEnabled(true);
+
+        for (DataMigration migration : new DataMigration[]{new LegacyDatesMigration(), new SearchIndexMigration(),
+                new LegacyDrawingsMigration(), new LegacySpannablesMigration(), new PreviewsMigration()}) {
+            dataMigrations.put(migration.getName(), migration);
+        }
+    }
+
+    /**
+     * Method used to get shared DatabaseHandler
+     * Connection is opened once and kept open, don't close databases returned by it
+     * @param context any Context, only application Context is kept
+     * @return process-wide DatabaseHandler
+     */
+    public static synchronized DatabaseHandler getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DatabaseHandler(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Method used to close shared DatabaseHandler, i.e. before database file is replaced
+     * Next getInstance() call opens a new one
+     */
+    public static synchronized void closeInstance() {
+        if (sInstance != null) {
+            sInstance.close();
+            sInstance = null;
+        }
+    }
+
+    /**
+     * Method used to open database for reading, refuses to block main thread
+     * Use DatabaseExecutor to query the database from UI
+     * @throws IllegalStateException if called on main thread
+     */
+    @Override
+    public SQLiteDatabase getReadableDatabase() {
+        assertNotMainThread();
+        return super.getReadableDatabase();
+    }
+
+    /**
+     * Method used to open database for writing, refuses to block main thread
+     * Use DatabaseExecutor to change the database from UI
+     * @throws IllegalStateException if called on main thread
+     */
+    @Override
+    public SQLiteDatabase getWritableDatabase() {
+        assertNotMainThread();
+        return super.getWritableDatabase();
+    }
+
+    private static void assertNotMainThread() {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("Database can't be accessed on main thread, use DatabaseExecutor");
+        }
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Applies only to new database, existing one is switched by first runMaintenance()
+        db.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
     }
 
     @Override
@@ -47,24 +252,88 @@ public class DatabaseHandler extends SQLiteOpenHelper {
                 + KEY_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + KEY_SPANNABLE_NOTE + " TEXT, "
                 + KEY_IMAGE + " BLOB, "
-                + KEY_DATE_UPDATED + " TEXT, "
-                + KEY_NOTE_TITLE + " VARCHAR(100))" //We don't want a super long title...
+                + KEY_DATE_UPDATED + " INTEGER NOT NULL DEFAULT 0, "
+                + KEY_NOTE_TITLE + " VARCHAR(100), " //We don't want a super long title...
+                + KEY_IMAGE_HASH + " TEXT, "
+                + KEY_SPANNABLE_NOTE_ENCODED + " BLOB, "
+                + KEY_PREVIEW + " TEXT NOT NULL DEFAULT '', "
+                + KEY_CHARACTER_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + KEY_DELETED + " INTEGER, "
+                + KEY_VERSION + " INTEGER NOT NULL DEFAULT 0)"
                 );
+        createDateUpdatedIndex(db);
+        createDeletedIndex(db);
+        createSearchTable(db);
+        createImageHashIndex(db);
+        createMigrationsTable(db);
+        createArchiveImportsTable(db);
+        createRevisionsTable(db);
     }
 
+    /**
+     * Schema is changed right away, rows are rewritten later by scheduled DataMigrations
+     * This runs inside getWritableDatabase(), so nothing here should depend on count of notes
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 
+        createMigrationsTable(db);
+
         switch (oldVersion)
         {
             case 1:
                 //upgrade from version 1 to 2
-                db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + KEY_DATE_UPDATED + " TEXT;");
+                db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + KEY_DATE_UPDATED_LEGACY + " TEXT;");
             case 2:
                 //upgrade from version 2 to 3
                 db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + KEY_NOTE_TITLE + " VARCHAR(100);");
             case 3:
                 //upgrade from version 3 to 4
+                db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + KEY_DATE_UPDATED + " INTEGER NOT NULL DEFAULT 0;");
+                createDateUpdatedIndex(db);
+                scheduleMigration(db, MIGRATION_LEGACY_DATES);
+            case 4:
+                //upgrade from version 4 to 5
+                createSearchTable(db);
+                scheduleMigration(db, MIGRATION_SEARCH_INDEX);
+            case 5:
+                //upgrade from version 5 to 6
+                db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + KEY_IMAGE_HASH + " TEXT;");
+                createImageHashIndex(db);
+                scheduleMigration(db, MIGRATION_LEGACY_DRAWINGS);
+            case 6:
+                //upgrade from version 6 to 7
+                db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + KEY_SPANNABLE_NOTE_ENCODED + " BLOB;");
+                scheduleMigration(db, MIGRATION_LEGACY_SPANNABLES);
+            case 7:
+                //upgrade from version 7 to 8
+                db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + KEY_PREVIEW + " TEXT NOT NULL DEFAULT '';");
+                db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + KEY_CHARACTER_COUNT + " INTEGER NOT NULL DEFAULT 0;");
+                scheduleMigration(db, MIGRATION_PREVIEWS);
+            case 8:
+                //upgrade from version 8 to 9
+                //versions 6 to 8 moved drawings and converted HTML without checkpoints, finish what's left
+                scheduleMigration(db, MIGRATION_LEGACY_DRAWINGS);
+                scheduleMigration(db, MIGRATION_LEGACY_SPANNABLES);
+            case 9:
+                //upgrade from version 9 to 10
+                createArchiveImportsTable(db);
+            case 10:
+                //upgrade from version 10 to 11
+                createRevisionsTable(db);
+            case 11:
+                //upgrade from version 11 to 12
+                db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + KEY_DELETED + " INTEGER;");
+                createDeletedIndex(db);
+            case 12:
+                //upgrade from version 12 to 13
+                db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + KEY_VERSION + " INTEGER NOT NULL DEFAULT 0;");
+            case 13:
+                //upgrade from version 13 to 14
+                //updates increase KEY_VERSION themselves
+                db.execSQL("DROP TRIGGER IF EXISTS " + TRIGGER_VERSION);
+            case 14:
+                //upgrade from version 14 to 15
                 //db.execSQL();
 
                 //and so on.. do not add breaks so that switch will
@@ -73,32 +342,115 @@ public class DatabaseHandler extends SQLiteOpenHelper {
         }
     }
 
+    private static void createDateUpdatedIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_DATE_UPDATED + " ON " + TABLE_NOTES
+                + "(" + KEY_DATE_UPDATED + ", " + KEY_ID + ")");
+    }
+
+    private static void createDeletedIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_DELETED + " ON " + TABLE_NOTES
+                + "(" + KEY_DELETED + ")");
+    }
+
+    private static void createImageHashIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_IMAGE_HASH + " ON " + TABLE_NOTES
+                + "(" + KEY_IMAGE_HASH + ")");
+    }
+
+    /**
+     * Method used to create full-text search index
+     * Deletes are synced by trigger, inserts and updates have to go through SearchIndexer
+     */
+    private static void createSearchTable(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_SEARCH + " USING fts4("
+                + KEY_SEARCH_TITLE + ", " + KEY_SEARCH_TEXT + ", prefix=\"2,3\")");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_SEARCH_DELETE
+                + " AFTER DELETE ON " + TABLE_NOTES + " BEGIN"
+                + " DELETE FROM " + TABLE_SEARCH + " WHERE docid = old." + KEY_ID + ";"
+                + " END");
+    }
+
+    private static void createMigrationsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_MIGRATIONS + "("
+                + KEY_MIGRATION_NAME + " TEXT PRIMARY KEY, "
+                + KEY_MIGRATION_LAST_ID + " INTEGER NOT NULL DEFAULT 0)");
+    }
+
+    private static void createArchiveImportsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_ARCHIVE_IMPORTS + "("
+                + KEY_ARCHIVE_CHECKSUM + " TEXT PRIMARY KEY)");
+    }
+
+    private static void createRevisionsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_REVISIONS + "("
+                + KEY_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + KEY_REVISION_NOTE_ID + " INTEGER NOT NULL, "
+                + KEY_NOTE_TITLE + " VARCHAR(100), "
+                + KEY_DATE_UPDATED + " INTEGER NOT NULL DEFAULT 0, "
+                + KEY_REVISION_KEYFRAME + " INTEGER NOT NULL DEFAULT 0, "
+                + KEY_REVISION_TEXT + " BLOB NOT NULL, "
+                + KEY_REVISION_DRAWING_MODE + " INTEGER NOT NULL DEFAULT " + DRAWING_UNCHANGED + ", "
+                + KEY_IMAGE_HASH + " TEXT, "
+                + KEY_REVISION_DRAWING_DELTA + " BLOB)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_REVISIONS_NOTE + " ON " + TABLE_REVISIONS
+                + "(" + KEY_REVISION_NOTE_ID + ", " + KEY_ID + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_REVISIONS_IMAGE_HASH + " ON " + TABLE_REVISIONS
+                + "(" + KEY_IMAGE_HASH + ")");
+    }
+
     /**
-     * Method used to clear notes table
+     * Method used to schedule DataMigration, it's run later by MigrationRunner
+     * Migrations run in order of scheduling, scheduling already scheduled migration does nothing
+     */
+    private static void scheduleMigration(SQLiteDatabase db, String name) {
+        ContentValues values = new ContentValues();
+        values.put(KEY_MIGRATION_NAME, name);
+        db.insertWithOnConflict(TABLE_MIGRATIONS, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+    }
+
+    /**
+     * Method used to clear notes table, revisions of notes are deleted too
      */
     public void clearAllNotes() {
         SQLiteDatabase db = getWritableDatabase();
         db.execSQL("DELETE FROM " + TABLE_NOTES);
+        db.execSQL("DELETE FROM " + TABLE_REVISIONS);
+        drawingsToCheck.clear();
+        drawingStore.clear();
+        noteCache.clear();
     }
 
     /**
      * Method used to put Note object into Database
      * @param note Note object to put into DB
+     * @return KEY_ID of created note, -1 if it wasn't created
      */
-    public void createNote(Note note) {
+    public long createNote(Note note) {
         SQLiteDatabase db = getWritableDatabase();
-        String spannableAsHtml = convertSpannableToHtmlString(note.getSpannable());
-        String date = dt.format(new Date());
 
         ContentValues values = new ContentValues();
 
-        values.put(KEY_SPANNABLE_NOTE, spannableAsHtml);
+        values.put(KEY_SPANNABLE_NOTE_ENCODED, SpanCodec.encode(note.getSpannable()));
+        values.put(KEY_PREVIEW, createPreview(note.getSpannable()));
+        values.put(KEY_CHARACTER_COUNT, note.getSpannable().length());
         values.put(KEY_NOTE_TITLE, note.getTitle());
-        values.put(KEY_IMAGE, BitmapConverter.getBytes(note.getImage()));
-        values.put(KEY_DATE_UPDATED, date);
+        values.put(KEY_DATE_UPDATED, System.currentTimeMillis());
 
-        db.insert(TABLE_NOTES, null, values);
-        db.close();
+        db.beginTransaction();
+        SearchIndexer indexer = new SearchIndexer(db);
+        try {
+            values.put(KEY_IMAGE_HASH, storeDrawing(note));
+            long id = db.insert(TABLE_NOTES, null, values);
+            if (id != -1) {
+                indexer.index(id, note);
+            }
+            db.setTransactionSuccessful();
+            return id;
+        } finally {
+            db.endTransaction();
+            indexer.close();
+            deleteUnreferencedDrawings(db);
+        }
     }
 
     /**
@@ -109,30 +461,40 @@ public class DatabaseHandler extends SQLiteOpenHelper {
     public Note getNote(int id) throws SQLiteException {
         SQLiteDatabase db = getReadableDatabase();
 
-        Cursor cursor = db.query(TABLE_NOTES, new String[]{KEY_ID, KEY_SPANNABLE_NOTE, KEY_IMAGE, KEY_DATE_UPDATED, KEY_NOTE_TITLE}, KEY_ID + "=?",
+        // Checking version of the row is much cheaper than decoding it
+        Note cachedNote = noteCache.get(id, queryVersion(db, id));
+        if (cachedNote != null) {
+            return cachedNote;
+        }
+
+        Cursor cursor = db.query(TABLE_NOTES, new String[]{KEY_ID, KEY_SPANNABLE_NOTE_ENCODED, KEY_SPANNABLE_NOTE, KEY_IMAGE_HASH, KEY_IMAGE, KEY_DATE_UPDATED, KEY_NOTE_TITLE, KEY_VERSION}, KEY_ID + "=? AND " + NOT_DELETED,
                 new String[]{String.valueOf(id)}, null, null, null, null);
 
         if (!cursor.moveToFirst()) {
-            //Failed to load note. Maybe the user restored data from an incompatible backup?
-            //Let's delete the problematic data
-            deleteNote(id);
+            cursor.close();
             throw new SQLiteException("Note doesn't exist");
         }
 
-        String spannableAsHtml = cursor.getString(cursor.getColumnIndex(KEY_SPANNABLE_NOTE));
-        Spannable spannable = convertHtmlStringToSpannable(spannableAsHtml);
-
-        Bitmap image = BitmapConverter.getImage(cursor.getBlob(cursor.getColumnIndex(KEY_IMAGE)));
+        Spannable spannable = readSpannable(cursor);
+        boolean isLegacySpannable = cursor.isNull(cursor.getColumnIndex(KEY_SPANNABLE_NOTE_ENCODED));
 
-        Date date;
-
-        try {
-            date = dt.parse(cursor.getString(cursor.getColumnIndex(KEY_DATE_UPDATED)));
-        } catch (Exception e) {
-            date = new Date();
-            e.printStackTrace();
+        Bitmap image = null;
+        StrokeDrawing strokes = null;
+        String imageHash = cursor.getString(cursor.getColumnIndex(KEY_IMAGE_HASH));
+        if (imageHash != null) {
+            // Strokes are rasterized only when drawing is shown
+            DrawingStore.StoredDrawing drawing = drawingStore.loadDrawing(imageHash);
+            if (drawing != null) {
+                strokes = drawing.strokes;
+                image = drawing.image;
+            }
+        } else if (!cursor.isNull(cursor.getColumnIndex(KEY_IMAGE))) {
+            // Drawing not migrated yet
+            image = BitmapConverter.getImage(cursor.getBlob(cursor.getColumnIndex(KEY_IMAGE)));
         }
 
+        Date date = new Date(cursor.getLong(cursor.getColumnIndex(KEY_DATE_UPDATED)));
+
         String title;
         try {
             title = cursor.getString(cursor.getColumnIndex(KEY_NOTE_TITLE));
@@ -141,9 +503,31 @@ public class DatabaseHandler extends SQLiteOpenHelper {
             e.printStackTrace();
         }
 
-        db.close();
+        long version = cursor.getLong(cursor.getColumnIndex(KEY_VERSION));
         cursor.close();
-        return new Note(id, title, spannable, image, date);
+
+        Note note = new Note(id, title, spannable, image, date);
+        note.setVersion(version);
+        if (strokes != null) {
+            note.setStrokes(strokes);
+        }
+        if (isLegacySpannable) {
+            migrateLegacySpannable(id, spannable);
+        }
+        if (imageHash == null || image != null || strokes != null) {
+            noteCache.put(version, note);
+        }
+        return note;
+    }
+
+    /**
+     * Method used to replace HTML kept by version 6 and older with encoded spannable
+     * Date of update and version aren't changed, note's content stays the same
+     */
+    private void migrateLegacySpannable(int id, Spannable spannable) {
+        getWritableDatabase().execSQL("UPDATE " + TABLE_NOTES + " SET " + KEY_SPANNABLE_NOTE_ENCODED + " = ?, "
+                + KEY_SPANNABLE_NOTE + " = NULL WHERE " + KEY_ID + " = ? AND "
+                + KEY_SPANNABLE_NOTE_ENCODED + " IS NULL", new Object[]{SpanCodec.encode(spannable), id});
     }
 
     /**
@@ -156,8 +540,19 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 
     public void deleteNote(int noteId) {
         SQLiteDatabase db = getWritableDatabase();
-        db.delete(TABLE_NOTES, KEY_ID + "=?", new String[]{String.valueOf(noteId)});
-        db.close();
+        db.beginTransaction();
+        try {
+            ArrayList<String> imageHashes = deleteRevisions(db, noteId, 0);
+            imageHashes.add(queryImageHash(db, noteId));
+            db.delete(TABLE_NOTES, KEY_ID + "=?", new String[]{String.valueOf(noteId)});
+            for (String imageHash : imageHashes) {
+                releaseDrawing(imageHash);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            deleteUnreferencedDrawings(db);
+        }
     }
 
     /**
@@ -166,109 +561,1682 @@ public class DatabaseHandler extends SQLiteOpenHelper {
      */
     public int getNoteCount() {
         SQLiteDatabase db = getReadableDatabase();
-        int numberOfNotes = (int) DatabaseUtils.queryNumEntries(db, TABLE_NOTES);
-        db.close();
-        return numberOfNotes;
+        return (int) DatabaseUtils.queryNumEntries(db, TABLE_NOTES, NOT_DELETED);
     }
 
     /**
      * Method used to update Note's text/format
+     * Only fields marked as changed are written, drawing isn't encoded at all when it didn't change.
+     * When title or spannable changed, both of them have to be set, they're used to update search index
+     * Previous version of note is kept as revision, see getRevisions()
      * @param note Note to update
-     * @return updated Note
+     * @return NoteSummary of updated note as it was persisted, null when note has no changes or doesn't exist
      */
-    public int updateNote(Note note) {
-        SQLiteDatabase db = getWritableDatabase();
-
-        String spannableAsHtml = convertSpannableToHtmlString(note.getSpannable());
+    public NoteSummary updateNote(Note note) {
+        if (!note.hasChanges()) {
+            return null;
+        }
 
-        String date = dt.format(new Date());
+        SQLiteDatabase db = getWritableDatabase();
 
         ContentValues values = new ContentValues();
-        values.put(KEY_IMAGE, BitmapConverter.getBytes(note.getImage()));
+        long date = System.currentTimeMillis();
         values.put(KEY_DATE_UPDATED, date);
-        values.put(KEY_SPANNABLE_NOTE, spannableAsHtml);
-        values.put(KEY_NOTE_TITLE, note.getTitle());
+        byte[] encodedSpannable = null;
+        if (note.isSpannableChanged()) {
+            encodedSpannable = SpanCodec.encode(note.getSpannable());
+            values.put(KEY_SPANNABLE_NOTE_ENCODED, encodedSpannable);
+            values.putNull(KEY_SPANNABLE_NOTE);
+            values.put(KEY_PREVIEW, createPreview(note.getSpannable()));
+            values.put(KEY_CHARACTER_COUNT, note.getSpannable().length());
+        }
+        if (note.isTitleChanged()) {
+            values.put(KEY_NOTE_TITLE, note.getTitle());
+        }
+
+        NoteSummary summary;
+        long oldVersion;
+        long newVersion;
+        db.beginTransaction();
+        SearchIndexer indexer = new SearchIndexer(db);
+        try {
+            oldVersion = queryVersion(db, note.getId());
+            String oldImageHash = null;
+            String imageHash = null;
+            if (note.isImageChanged()) {
+                oldImageHash = queryImageHash(db, note.getId());
+                imageHash = storeDrawing(note);
+                values.putNull(KEY_IMAGE);
+                values.put(KEY_IMAGE_HASH, imageHash);
+            }
+            saveRevision(db, note, false, encodedSpannable, imageHash);
+            newVersion = oldVersion + 1;
+            values.put(KEY_VERSION, newVersion);
+            int updatedCount = db.update(TABLE_NOTES, values, KEY_ID + "=? AND " + NOT_DELETED,
+                    new String[]{String.valueOf(note.getId())});
+            if (updatedCount > 0 && (note.isTitleChanged() || note.isSpannableChanged())) {
+                indexer.index(note.getId(), note);
+            }
+            releaseDrawing(oldImageHash);
+            summary = updatedCount > 0 ? getNoteSummary(note.getId()) : null;
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            indexer.close();
+            deleteUnreferencedDrawings(db);
+        }
 
-        return db.update(TABLE_NOTES, values, KEY_ID + "=?", new String[]{String.valueOf(note.getId())});
+        // Outer transaction could still be rolled back, and the version written again with other content
+        if (summary != null && !db.inTransaction()) {
+            noteCache.update(oldVersion, newVersion, note, date);
+        }
+        return summary;
     }
 
     /**
-     * Method used to get all notes in Database
-     * @return ArrayList of Notes, containing all notes in Database
+     * Method used to put many Note objects into Database at once
+     * All notes are inserted in single transaction with one precompiled statement
+     * @param notes Note objects to put into DB
+     * @return KEY_IDs of created notes, in order of notes collection
      */
-    public ArrayList<Note> getAllNotesAsArrayList() {
-        ArrayList<Note> notes = new ArrayList<>();
+    public long[] createNotes(Collection<Note> notes) {
+        SQLiteDatabase db = getWritableDatabase();
+        long[] ids = new long[notes.size()];
+        long date = System.currentTimeMillis();
+
+        SQLiteStatement statement = db.compileStatement("INSERT INTO " + TABLE_NOTES + " ("
+                + KEY_SPANNABLE_NOTE_ENCODED + ", " + KEY_NOTE_TITLE + ", " + KEY_IMAGE_HASH + ", " + KEY_DATE_UPDATED + ", "
+                + KEY_PREVIEW + ", " + KEY_CHARACTER_COUNT + ") VALUES (?, ?, ?, ?, ?, ?)");
+        db.beginTransaction();
+        SearchIndexer indexer = new SearchIndexer(db);
+        try {
+            int i = 0;
+            for (Note note : notes) {
+                bindNote(statement, note, SpanCodec.encode(note.getSpannable()), storeDrawing(note), date);
+                ids[i] = statement.executeInsert();
+                indexer.index(ids[i], note);
+                i++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+            indexer.close();
+            deleteUnreferencedDrawings(db);
+        }
+        return ids;
+    }
 
+    /**
+     * Method used to update many notes at once
+     * All notes are updated in single transaction with one precompiled statement
+     * All fields are written, no matter if they are marked as changed
+     * Previous versions of notes are kept as revisions
+     * @param notes Notes to update
+     * @return count of updated notes
+     */
+    public int updateNotes(Collection<Note> notes) {
         SQLiteDatabase db = getWritableDatabase();
-        Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_NOTES, null);
+        int updatedCount = 0;
+        long date = System.currentTimeMillis();
 
-        if (cursor.moveToFirst()) {
-            do {
-                int id = Integer.parseInt(cursor.getString(cursor.getColumnIndex(KEY_ID)));
-                Spannable spannable = convertHtmlStringToSpannable(cursor.getString(cursor.getColumnIndex(KEY_SPANNABLE_NOTE)));
-                //Default val
-                Date date;
+        SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE_NOTES + " SET "
+                + KEY_SPANNABLE_NOTE_ENCODED + " = ?, " + KEY_NOTE_TITLE + " = ?, " + KEY_IMAGE_HASH + " = ?, " + KEY_DATE_UPDATED
+                + " = ?, " + KEY_PREVIEW + " = ?, " + KEY_CHARACTER_COUNT + " = ?, "
+                + KEY_IMAGE + " = NULL, " + KEY_SPANNABLE_NOTE + " = NULL, " + INCREMENT_VERSION
+                + " WHERE " + KEY_ID + " = ? AND " + NOT_DELETED);
+        db.beginTransaction();
+        SearchIndexer indexer = new SearchIndexer(db);
+        try {
+            ArrayList<String> oldImageHashes = new ArrayList<>();
+            for (Note note : notes) {
+                oldImageHashes.add(queryImageHash(db, note.getId()));
+                byte[] encodedSpannable = SpanCodec.encode(note.getSpannable());
+                String imageHash = storeDrawing(note);
+                saveRevision(db, note, true, encodedSpannable, imageHash);
+                bindNote(statement, note, encodedSpannable, imageHash, date);
+                statement.bindLong(7, note.getId());
+                if (statement.executeUpdateDelete() > 0) {
+                    indexer.index(note.getId(), note);
+                    updatedCount++;
+                }
+            }
+            for (String oldImageHash : oldImageHashes) {
+                releaseDrawing(oldImageHash);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+            indexer.close();
+            deleteUnreferencedDrawings(db);
+        }
+        // Versions of updated rows changed, entries would only take memory
+        for (Note note : notes) {
+            noteCache.remove(note.getId());
+        }
+        return updatedCount;
+    }
 
-                try {
-                    date = dt.parse(cursor.getString(cursor.getColumnIndex(KEY_DATE_UPDATED)));
-                } catch (Exception e) {
-                    date = new Date();
-                    e.printStackTrace();
+    /**
+     * Method used to delete many notes at once
+     * All notes are deleted in single transaction with one precompiled statement
+     * @param noteIds KEY_IDs of notes to delete
+     * @return count of deleted notes
+     */
+    public int deleteNotes(int... noteIds) {
+        SQLiteDatabase db = getWritableDatabase();
+        int deletedCount = 0;
+
+        SQLiteStatement statement = db.compileStatement("DELETE FROM " + TABLE_NOTES + " WHERE " + KEY_ID + " = ?");
+        db.beginTransaction();
+        try {
+            ArrayList<String> imageHashes = new ArrayList<>();
+            for (int noteId : noteIds) {
+                imageHashes.addAll(deleteRevisions(db, noteId, 0));
+                imageHashes.add(queryImageHash(db, noteId));
+                statement.bindLong(1, noteId);
+                deletedCount += statement.executeUpdateDelete();
+            }
+            for (String imageHash : imageHashes) {
+                releaseDrawing(imageHash);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+            deleteUnreferencedDrawings(db);
+        }
+        for (int noteId : noteIds) {
+            noteCache.remove(noteId);
+        }
+        return deletedCount;
+    }
+
+    /**
+     * Method used to move notes to trash
+     * Trashed notes are hidden from all queries right away, purgeTrash() deletes them later
+     * @param noteIds KEY_IDs of notes to trash
+     * @return id of trash batch, used to restore the notes by restoreTrashedNotes()
+     */
+    public long trashNotes(int... noteIds) {
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE_NOTES + " SET " + KEY_DELETED + " = ? WHERE "
+                + KEY_ID + " = ? AND " + NOT_DELETED);
+        db.beginTransaction();
+        try {
+            long trashId = createTrashId(db);
+            for (int noteId : noteIds) {
+                statement.bindLong(1, trashId);
+                statement.bindLong(2, noteId);
+                statement.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+            return trashId;
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+    }
+
+    /**
+     * Method used to move all notes to trash
+     * @return id of trash batch, used to restore the notes by restoreTrashedNotes()
+     */
+    public long trashAllNotes() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            long trashId = createTrashId(db);
+            ContentValues values = new ContentValues();
+            values.put(KEY_DELETED, trashId);
+            db.update(TABLE_NOTES, values, NOT_DELETED, null);
+            db.setTransactionSuccessful();
+            return trashId;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Method used to take notes out of trash, i.e. when user undoes deletion
+     * @param trashId id returned by trashNotes() or trashAllNotes()
+     * @return count of restored notes, 0 if they were purged already
+     */
+    public int restoreTrashedNotes(long trashId) {
+        ContentValues values = new ContentValues();
+        values.putNull(KEY_DELETED);
+        return getWritableDatabase().update(TABLE_NOTES, values, KEY_DELETED + " = ?",
+                new String[]{String.valueOf(trashId)});
+    }
+
+    /**
+     * Method used to delete single batch of trashed notes for good
+     * Each batch runs in its own short transaction, so readers and writers aren't blocked for long
+     * @param trashedBefore only notes trashed before this time are deleted
+     * @param batchSize max count of notes to delete
+     * @return count of deleted notes, 0 when there is nothing left to delete
+     */
+    public int purgeTrash(long trashedBefore, int batchSize) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.query(TABLE_NOTES, new String[]{KEY_ID}, KEY_DELETED + " < ?",
+                    new String[]{String.valueOf(trashedBefore)}, null, null, KEY_DELETED, String.valueOf(batchSize));
+            int[] noteIds = new int[cursor.getCount()];
+            try {
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    noteIds[i] = cursor.getInt(0);
                 }
+            } finally {
+                cursor.close();
+            }
+            int deletedCount = deleteNotes(noteIds);
+            db.setTransactionSuccessful();
+            return deletedCount;
+        } finally {
+            db.endTransaction();
+            deleteUnreferencedDrawings(db);
+        }
+    }
 
-                String title;
+    /**
+     * @return time the oldest note in trash was trashed at, -1 if trash is empty
+     */
+    public long getOldestTrashTime() {
+        SQLiteDatabase db = getReadableDatabase();
+        return DatabaseUtils.longForQuery(db, "SELECT IFNULL(MIN(" + KEY_DELETED + "), -1) FROM " + TABLE_NOTES, null);
+    }
+
+    /**
+     * Method used to get unique id of trash batch, it's the current time unless that's taken already
+     * Should be called inside transaction that trashes notes
+     */
+    private static long createTrashId(SQLiteDatabase db) {
+        long lastTrashId = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" + KEY_DELETED + "), 0) FROM " + TABLE_NOTES, null);
+        return Math.max(System.currentTimeMillis(), lastTrashId + 1);
+    }
+
+    /**
+     * Method used to read notes exported by NoteArchive
+     * @param afterId KEY_ID of last note read before, 0 to read from the first one
+     * @param limit max count of notes to read
+     * @return notes following afterId, ordered by KEY_ID
+     */
+    ArrayList<NoteArchive.Record> getArchiveRecords(int afterId, int limit) {
+        SQLiteDatabase db = getReadableDatabase();
+        ArrayList<NoteArchive.Record> records = new ArrayList<>();
+        Cursor cursor = db.query(TABLE_NOTES, new String[]{KEY_ID, KEY_NOTE_TITLE, KEY_DATE_UPDATED, KEY_IMAGE_HASH,
+                        KEY_SPANNABLE_NOTE_ENCODED, KEY_SPANNABLE_NOTE}, KEY_ID + " > ? AND " + NOT_DELETED,
+                new String[]{String.valueOf(afterId)}, null, null, KEY_ID, String.valueOf(limit));
+        try {
+            while (cursor.moveToNext()) {
+                // Legacy HTML is converted on the fly, archive has only encoded text
+                byte[] encoded = cursor.isNull(4) ? SpanCodec.encode(readSpannable(cursor)) : cursor.getBlob(4);
+                records.add(new NoteArchive.Record(cursor.getInt(0), cursor.getString(1), cursor.getLong(2),
+                        encoded, cursor.getString(3)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return records;
+    }
+
+    /**
+     * Method used to insert notes read by NoteArchive in single transaction
+     * Checksums of records are remembered, so unfinished import can skip them when repeated
+     * @param records records with checksums, their drawings have to be in DrawingStore already
+     * @return count of inserted notes
+     * @throws SQLiteException if record can't be decoded or its drawing is missing, nothing is inserted then
+     */
+    int importArchiveRecords(Collection<NoteArchive.Record> records) throws SQLiteException {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        SearchIndexer indexer = new SearchIndexer(db);
+        try {
+            for (NoteArchive.Record record : records) {
+                // Checked inside transaction, so concurrent delete can't release the drawing meanwhile
+                if (record.imageHash != null && !drawingStore.getFile(record.imageHash).exists()) {
+                    throw new SQLiteException("Drawing " + record.imageHash + " of imported note is missing");
+                }
+                Spannable spannable;
                 try {
-                    title = cursor.getString(cursor.getColumnIndex(KEY_NOTE_TITLE));
-                } catch (Exception e) {
-                    title = "";
-                    e.printStackTrace();
+                    spannable = SpanCodec.decode(record.encodedSpannable);
+                } catch (IllegalArgumentException e) {
+                    SQLiteException exception = new SQLiteException("Can't decode imported note");
+                    exception.initCause(e);
+                    throw exception;
                 }
 
-                Note note = new Note(id, title, spannable, null, date);
-                notes.add(note);
+                ContentValues values = new ContentValues();
+                values.put(KEY_SPANNABLE_NOTE_ENCODED, record.encodedSpannable);
+                values.put(KEY_PREVIEW, createPreview(spannable));
+                values.put(KEY_CHARACTER_COUNT, spannable.length());
+                values.put(KEY_NOTE_TITLE, record.title);
+                values.put(KEY_DATE_UPDATED, record.dateUpdated);
+                values.put(KEY_IMAGE_HASH, record.imageHash);
+                long id = db.insertOrThrow(TABLE_NOTES, null, values);
+                indexer.index(id, record.title, spannable.toString());
+
+                values = new ContentValues();
+                values.put(KEY_ARCHIVE_CHECKSUM, record.checksum);
+                db.insertWithOnConflict(TABLE_ARCHIVE_IMPORTS, null, values, SQLiteDatabase.CONFLICT_IGNORE);
             }
-            while (cursor.moveToNext());
+            db.setTransactionSuccessful();
+            return records.size();
+        } finally {
+            db.endTransaction();
+            indexer.close();
         }
-        cursor.close();
-        return notes;
     }
 
-    private Spannable convertHtmlStringToSpannable(String htmlString) {
-        Spanned spanned;
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.N) {
-            spanned = Html.fromHtml(htmlString, Html.FROM_HTML_MODE_LEGACY);
-        } else {
-            spanned = Html.fromHtml(htmlString);
+    /**
+     * Method used to delete drawings stored for notes that may not be inserted, i.e. by failed NoteArchive import
+     * Drawings referenced by any note or revision are kept
+     * @param imageHashes hashes returned by DrawingStore.put()
+     */
+    void releaseDrawings(Collection<String> imageHashes) {
+        for (String imageHash : imageHashes) {
+            releaseDrawing(imageHash);
         }
+        deleteUnreferencedDrawings(getWritableDatabase());
+    }
 
-        final String newLine = "\n";
-        // Html.toHtml() appends newLine to end of text.
-        // This is workaround for that situation.
-        while (spanned.toString().endsWith(newLine)) {
-            spanned = new SpannedString(spanned.subSequence(0, spanned.length() - newLine.length()));
+    /**
+     * @return true if NoteArchive record with given checksum was imported by unfinished import
+     */
+    boolean isArchiveRecordImported(String checksum) {
+        SQLiteDatabase db = getReadableDatabase();
+        return DatabaseUtils.queryNumEntries(db, TABLE_ARCHIVE_IMPORTS, KEY_ARCHIVE_CHECKSUM + " = ?",
+                new String[]{checksum}) > 0;
+    }
+
+    /**
+     * Method used to forget checksums of imported records once import is finished
+     */
+    void clearArchiveImports() {
+        getWritableDatabase().delete(TABLE_ARCHIVE_IMPORTS, null, null);
+    }
+
+    /**
+     * Method used to get saved revisions of note
+     * @param noteId KEY_ID of note
+     * @return revisions of note, newest first
+     */
+    public ArrayList<NoteRevision> getRevisions(int noteId) {
+        SQLiteDatabase db = getReadableDatabase();
+        ArrayList<NoteRevision> revisions = new ArrayList<>();
+        Cursor cursor = db.query(TABLE_REVISIONS, new String[]{KEY_ID, KEY_NOTE_TITLE, KEY_DATE_UPDATED, REVISION_BYTES},
+                KEY_REVISION_NOTE_ID + " = ?", new String[]{String.valueOf(noteId)}, null, null, KEY_ID + " DESC");
+        try {
+            while (cursor.moveToNext()) {
+                revisions.add(new NoteRevision(cursor.getInt(0), noteId, cursor.getString(1),
+                        new Date(cursor.getLong(2)), cursor.getLong(3)));
+            }
+        } finally {
+            cursor.close();
         }
-        return new SpannableString(spanned);
+        return revisions;
     }
 
-    private String convertSpannableToHtmlString(Spannable spannable) {
-        String htmlString;
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.N) {
-            htmlString = Html.toHtml(spannable, Html.FROM_HTML_MODE_LEGACY);
-        } else {
-            htmlString = Html.toHtml(spannable);
+    /**
+     * Method used to reconstruct note as it was in given revision
+     * Starts from the closest newer keyframe, or from the note itself, and applies deltas back to the revision
+     * @param revisionId id of NoteRevision
+     * @return Note with KEY_ID of its note and all fields marked as changed, so it can be passed to updateNote()
+     * @throws SQLiteException if revision doesn't exist or can't be decoded
+     */
+    public Note getRevision(int revisionId) throws SQLiteException {
+        SQLiteDatabase db = getReadableDatabase();
+        // Rows are read without transaction, so writers aren't blocked. Update of the note that commits meanwhile
+        // changes its version, reconstruction could mix rows from before and after it and is repeated then
+        for (int attempt = 1; ; attempt++) {
+            int noteId = queryRevisionNoteId(db, revisionId);
+            long version = queryVersion(db, noteId);
+            Note note;
+            try {
+                note = reconstructRevision(db, noteId, revisionId);
+            } catch (SQLiteException e) {
+                // Drawing could be released by the update
+                if (queryVersion(db, noteId) == version || attempt == MAX_REVISION_READ_ATTEMPTS) {
+                    throw e;
+                }
+                continue;
+            }
+            if (queryVersion(db, noteId) == version) {
+                return note;
+            }
+            if (attempt == MAX_REVISION_READ_ATTEMPTS) {
+                throw new SQLiteException("Note " + noteId + " kept changing while its revision was read");
+            }
         }
-        return removeAllSuffixingNewlines(htmlString);
     }
 
-    private String removeAllSuffixingNewlines(String string) {
-        // Html.toHtml() appends newLine to end of text.
-        // This is workaround for that situation.
-        final String newLine = "\n";
-        while (string.lastIndexOf(newLine) != -1
-                && string.lastIndexOf(newLine) == string.length() - newLine.length()) {
-            string = string.substring(0, string.length() - newLine.length());
+    private static int queryRevisionNoteId(SQLiteDatabase db, int revisionId) {
+        Cursor cursor = db.query(TABLE_REVISIONS, new String[]{KEY_REVISION_NOTE_ID}, KEY_ID + " = ?",
+                new String[]{String.valueOf(revisionId)}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                throw new SQLiteException("Revision doesn't exist");
+            }
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
         }
-        return string;
     }
 
+    /**
+     * Method used to apply deltas of revisions to the closest newer keyframe or to the note, see getRevision()
+     */
+    private Note reconstructRevision(SQLiteDatabase db, int noteId, int revisionId) throws SQLiteException {
+        ArrayList<RevisionRow> rows = new ArrayList<>();
+        Cursor cursor = db.query(TABLE_REVISIONS, RevisionRow.COLUMNS, KEY_REVISION_NOTE_ID + " = ? AND " + KEY_ID + " >= ?",
+                new String[]{String.valueOf(noteId), String.valueOf(revisionId)}, null, null, KEY_ID);
+        try {
+            while (cursor.moveToNext()) {
+                RevisionRow row = new RevisionRow(cursor);
+                rows.add(row);
+                if (row.isKeyframe) {
+                    break;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        if (rows.isEmpty()) {
+            throw new SQLiteException("Revision doesn't exist");
+        }
+
+        RevisionRow revision = rows.get(0);
+        byte[] text = null;
+        String imageHash = null;
+        Bitmap image = null;
+        if (!rows.get(rows.size() - 1).isKeyframe) {
+            // No keyframe after the revision, deltas start from the note itself
+            cursor = db.query(TABLE_NOTES, new String[]{KEY_SPANNABLE_NOTE_ENCODED, KEY_SPANNABLE_NOTE, KEY_IMAGE_HASH, KEY_IMAGE},
+                    KEY_ID + " = ?", new String[]{String.valueOf(revision.noteId)}, null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    throw new SQLiteException("Note doesn't exist");
+                }
+                text = readEncodedSpannable(cursor);
+                imageHash = cursor.getString(2);
+                if (imageHash == null && !cursor.isNull(3)) {
+                    image = BitmapConverter.getImage(cursor.getBlob(3));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        Spannable spannable;
+        try {
+            for (int i = rows.size() - 1; i >= 0; i--) {
+                RevisionRow row = rows.get(i);
+                text = row.isKeyframe ? row.text : TextDelta.apply(text, row.text);
+                if (row.drawingMode == DRAWING_REFERENCE) {
+                    imageHash = row.imageHash;
+                    image = null;
+                } else if (row.drawingMode == DRAWING_TILES) {
+                    if (image == null && imageHash != null) {
+                        image = drawingStore.load(imageHash);
+                    }
+                    if (image == null) {
+                        throw new SQLiteException("Drawing of revision is missing");
+                    }
+                    image = TileDelta.apply(image, row.drawingDelta);
+                }
+            }
+            spannable = SpanCodec.decode(text);
+        } catch (IllegalArgumentException e) {
+            SQLiteException exception = new SQLiteException("Can't decode revision");
+            exception.initCause(e);
+            throw exception;
+        }
+        StrokeDrawing strokes = null;
+        if (image == null && imageHash != null) {
+            DrawingStore.StoredDrawing drawing = drawingStore.loadDrawing(imageHash);
+            if (drawing != null) {
+                strokes = drawing.strokes;
+                image = drawing.image;
+            }
+        }
+
+        Note note = new Note(revision.noteId, revision.title, spannable, image, new Date(revision.dateUpdated));
+        if (strokes != null) {
+            note.setStrokes(strokes);
+        }
+        note.setTitleChanged(true);
+        note.setSpannableChanged(true);
+        note.setImageChanged(true);
+        return note;
+    }
+
+    /**
+     * Method used to bring note back to given revision
+     * Current version of note is saved as new revision, so restoring can be undone too
+     * @param revisionId id of NoteRevision
+     * @return NoteSummary of restored note, null when it's the same as revision
+     * @throws SQLiteException if revision doesn't exist or can't be decoded
+     */
+    public NoteSummary restoreRevision(int revisionId) throws SQLiteException {
+        return updateNote(getRevision(revisionId));
+    }
+
+    /**
+     * Method used to save current version of note as revision before note is updated
+     * Revision is stored as delta from the new version, so it has to be called in transaction of the update
+     * Nothing is saved if note doesn't exist, is in trash or new version is the same
+     * @param note new version of note
+     * @param isWholeNote true if all fields of note are written, otherwise only fields marked as changed
+     * @param encodedSpannable new encoded spannable, null if spannable isn't written
+     * @param imageHash hash of new drawing, used only if drawing is written
+     */
+    private void saveRevision(SQLiteDatabase db, Note note, boolean isWholeNote, byte[] encodedSpannable, String imageHash) {
+        String noteId = String.valueOf(note.getId());
+        byte[] text;
+        String title;
+        long date;
+        String oldImageHash;
+        byte[] legacyImage;
+        Cursor cursor = db.query(TABLE_NOTES, new String[]{KEY_SPANNABLE_NOTE_ENCODED, KEY_SPANNABLE_NOTE, KEY_NOTE_TITLE,
+                KEY_DATE_UPDATED, KEY_IMAGE_HASH, KEY_IMAGE}, KEY_ID + " = ? AND " + NOT_DELETED, new String[]{noteId}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            text = readEncodedSpannable(cursor);
+            title = cursor.getString(2);
+            date = cursor.getLong(3);
+            oldImageHash = cursor.getString(4);
+            legacyImage = oldImageHash == null && !cursor.isNull(5) ? cursor.getBlob(5) : null;
+        } finally {
+            cursor.close();
+        }
+
+        byte[] newText = encodedSpannable != null ? encodedSpannable : text;
+        String newTitle = isWholeNote || note.isTitleChanged() ? note.getTitle() : title;
+        boolean isDrawingChanged = (isWholeNote || note.isImageChanged())
+                && (legacyImage != null || !TextUtils.equals(oldImageHash, imageHash));
+        if (!isDrawingChanged && TextUtils.equals(title, newTitle) && Arrays.equals(text, newText)) {
+            return;
+        }
+
+        boolean isKeyframe = DatabaseUtils.queryNumEntries(db, TABLE_REVISIONS, KEY_REVISION_NOTE_ID + " = ? AND "
+                + KEY_ID + " > IFNULL((SELECT MAX(" + KEY_ID + ") FROM " + TABLE_REVISIONS + " WHERE "
+                + KEY_REVISION_NOTE_ID + " = ? AND " + KEY_REVISION_KEYFRAME + " = 1), 0)",
+                new String[]{noteId, noteId}) >= KEYFRAME_INTERVAL - 1;
+
+        ContentValues values = new ContentValues();
+        values.put(KEY_REVISION_NOTE_ID, note.getId());
+        values.put(KEY_NOTE_TITLE, title);
+        values.put(KEY_DATE_UPDATED, date);
+        values.put(KEY_REVISION_KEYFRAME, isKeyframe);
+        values.put(KEY_REVISION_TEXT, isKeyframe ? text : TextDelta.create(newText, text));
+        if (isKeyframe || isDrawingChanged) {
+            if (legacyImage != null) {
+                // Drawing not migrated yet, revision gets its own file
+                oldImageHash = storeDrawing(BitmapConverter.getImage(legacyImage));
+            }
+            byte[] drawingDelta = null;
+            // Files of strokes are smaller than tiles changed by them, revision just keeps old file then
+            if (!isKeyframe && oldImageHash != null && imageHash != null && note.getStrokes() == null) {
+                Bitmap oldImage = drawingStore.load(oldImageHash);
+                if (oldImage != null) {
+                    drawingDelta = TileDelta.create(note.getImage(), oldImage);
+                }
+            }
+            if (drawingDelta != null) {
+                values.put(KEY_REVISION_DRAWING_MODE, DRAWING_TILES);
+                values.put(KEY_REVISION_DRAWING_DELTA, drawingDelta);
+            } else {
+                values.put(KEY_REVISION_DRAWING_MODE, DRAWING_REFERENCE);
+                values.put(KEY_IMAGE_HASH, oldImageHash);
+            }
+        }
+        db.insertOrThrow(TABLE_REVISIONS, null, values);
+
+        for (String trimmedImageHash : deleteRevisions(db, note.getId(), MAX_REVISIONS)) {
+            releaseDrawing(trimmedImageHash);
+        }
+    }
+
+    /**
+     * Method used to delete oldest revisions of note
+     * Drawings of deleted revisions aren't released, caller has to release them once nothing else references them
+     * @param keepCount count of newest revisions to keep, 0 to delete all of them
+     * @return hashes of drawings referenced by deleted revisions
+     */
+    private static ArrayList<String> deleteRevisions(SQLiteDatabase db, int noteId, int keepCount) {
+        ArrayList<String> imageHashes = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT " + KEY_ID + " FROM " + TABLE_REVISIONS + " WHERE " + KEY_REVISION_NOTE_ID
+                + " = ? ORDER BY " + KEY_ID + " DESC LIMIT 1 OFFSET " + keepCount, new String[]{String.valueOf(noteId)});
+        long newestDeletedId;
+        try {
+            if (!cursor.moveToFirst()) {
+                return imageHashes;
+            }
+            newestDeletedId = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+
+        String selection = KEY_REVISION_NOTE_ID + " = ? AND " + KEY_ID + " <= ?";
+        String[] selectionArgs = new String[]{String.valueOf(noteId), String.valueOf(newestDeletedId)};
+        cursor = db.query(true, TABLE_REVISIONS, new String[]{KEY_IMAGE_HASH}, selection + " AND " + KEY_IMAGE_HASH + " IS NOT NULL",
+                selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                imageHashes.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        db.delete(TABLE_REVISIONS, selection, selectionArgs);
+        return imageHashes;
+    }
+
+    /**
+     * Method used to run single batch of scheduled DataMigrations
+     * Batch runs in its own transaction that also saves checkpoint, so it may run in background while app is used
+     * @param batchSize max count of rows to migrate
+     * @return count of migrated rows, 0 when there is nothing left to migrate
+     */
+    public int runMigrationBatch(int batchSize) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            int migratedCount = 0;
+            Cursor checkpoints = db.query(TABLE_MIGRATIONS, new String[]{KEY_MIGRATION_NAME, KEY_MIGRATION_LAST_ID},
+                    null, null, null, null, "rowid");
+            try {
+                while (migratedCount == 0 && checkpoints.moveToNext()) {
+                    String name = checkpoints.getString(0);
+                    DataMigration migration = dataMigrations.get(name);
+                    if (migration != null) {
+                        migratedCount = migrateRows(db, migration, checkpoints.getLong(1), batchSize);
+                    }
+                    if (migratedCount == 0) {
+                        // Done, or scheduled by newer version of app
+                        db.delete(TABLE_MIGRATIONS, KEY_MIGRATION_NAME + " = ?", new String[]{name});
+                    }
+                }
+            } finally {
+                checkpoints.close();
+            }
+            db.setTransactionSuccessful();
+            return migratedCount;
+        } finally {
+            db.endTransaction();
+            deleteUnreferencedDrawings(db);
+        }
+    }
+
+    /**
+     * Method used to get count of rows that scheduled DataMigrations still have to migrate
+     * @return count of rows, 0 when there is nothing to migrate
+     */
+    public int getPendingMigrationRowCount() {
+        SQLiteDatabase db = getReadableDatabase();
+        int count = 0;
+        Cursor checkpoints = db.query(TABLE_MIGRATIONS, new String[]{KEY_MIGRATION_NAME, KEY_MIGRATION_LAST_ID},
+                null, null, null, null, null);
+        try {
+            while (checkpoints.moveToNext()) {
+                DataMigration migration = dataMigrations.get(checkpoints.getString(0));
+                if (migration != null) {
+                    count += DatabaseUtils.queryNumEntries(db, TABLE_NOTES, getMigrationSelection(migration),
+                            new String[]{String.valueOf(checkpoints.getLong(1))});
+                }
+            }
+        } finally {
+            checkpoints.close();
+        }
+        return count;
+    }
+
+    /**
+     * Method used to give space freed by deleted and rewritten notes back to file system
+     * and to refresh statistics used by query planner.
+     * Blocks writers for a while, it should run only when device is idle, see MaintenanceJobService
+     * @return true if maintenance is done, false if it should be retried later
+     * @throws SQLiteException if database is corrupted
+     */
+    public boolean runMaintenance() throws SQLiteException {
+        if (getPendingMigrationRowCount() > 0) {
+            // Migrations still rewrite rows, space they free is reclaimed after they're done
+            return false;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        if (!db.isDatabaseIntegrityOk()) {
+            throw new SQLiteException("Database integrity check failed");
+        }
+
+        if (queryPragma(db, "auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            // Databases created before auto_vacuum was enabled switch to it only by being rebuilt
+            db.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+            db.execSQL("VACUUM");
+        } else if (queryPragma(db, "freelist_count") > 0) {
+            runPragma(db, "incremental_vacuum");
+        }
+        deleteOrphanDrawings(db);
+        runPragma(db, "optimize");
+        runPragma(db, "wal_checkpoint(TRUNCATE)");
+        return true;
+    }
+
+    /**
+     * Method used to give some free pages back to file system, i.e. after notes were purged
+     * Pages are released in small steps, so write lock isn't held for long. Readers aren't blocked at all.
+     * Does nothing until runMaintenance() enables incremental auto vacuum
+     * @param maxPages max count of pages to release
+     */
+    public void releaseFreePages(int maxPages) {
+        SQLiteDatabase db = getWritableDatabase();
+        if (queryPragma(db, "auto_vacuum") == AUTO_VACUUM_INCREMENTAL && queryPragma(db, "freelist_count") > 0) {
+            runPragma(db, "incremental_vacuum(" + maxPages + ")");
+        }
+    }
+
+    /**
+     * @return cache of decoded notes, used to read its hit and miss counts
+     */
+    public NoteCache getNoteCache() {
+        return noteCache;
+    }
+
+    /**
+     * Method used to get space used by database, its pages and each note
+     * Reads every row, it's meant for debug screens only
+     * @return current StorageStats
+     */
+    public StorageStats getStorageStats() {
+        SQLiteDatabase db = getReadableDatabase();
+        ArrayList<StorageStats.NoteSize> noteSizes = new ArrayList<>();
+        Cursor cursor = db.query(TABLE_NOTES, new String[]{KEY_ID,
+                "IFNULL(LENGTH(" + KEY_SPANNABLE_NOTE_ENCODED + "), 0) + IFNULL(LENGTH(CAST(" + KEY_SPANNABLE_NOTE + " AS BLOB)), 0)",
+                "IFNULL(LENGTH(" + KEY_IMAGE + "), 0)", KEY_IMAGE_HASH,
+                "(SELECT IFNULL(SUM(" + REVISION_BYTES + "), 0) FROM " + TABLE_REVISIONS
+                        + " WHERE " + KEY_REVISION_NOTE_ID + " = " + TABLE_NOTES + "." + KEY_ID + ")"},
+                null, null, null, null, KEY_ID);
+        try {
+            while (cursor.moveToNext()) {
+                String imageHash = cursor.getString(3);
+                long drawingFileBytes = imageHash != null ? drawingStore.getFile(imageHash).length() : 0;
+                noteSizes.add(new StorageStats.NoteSize(cursor.getInt(0), cursor.getLong(1), cursor.getLong(2),
+                        drawingFileBytes, cursor.getLong(4)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return new StorageStats(queryPragma(db, "page_size"), queryPragma(db, "page_count"),
+                queryPragma(db, "freelist_count"), queryPragma(db, "auto_vacuum") == AUTO_VACUUM_INCREMENTAL,
+                new File(db.getPath() + "-wal").length(), noteSizes);
+    }
+
+    private static long queryPragma(SQLiteDatabase db, String name) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA " + name, null);
+    }
+
+    /**
+     * Method used to run pragma till its end, some of them i.e. incremental_vacuum do part of their work on each row
+     */
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Method used to migrate rows following checkpoint and move checkpoint past them
+     * @return count of migrated rows
+     */
+    private int migrateRows(SQLiteDatabase db, DataMigration migration, long lastId, int batchSize) {
+        Cursor rows = db.query(TABLE_NOTES, migration.getColumns(), getMigrationSelection(migration),
+                new String[]{String.valueOf(lastId)}, null, null, KEY_ID, String.valueOf(batchSize));
+        try {
+            int count = rows.getCount();
+            if (count == 0) {
+                return 0;
+            }
+            migration.migrate(db, rows);
+
+            rows.moveToLast();
+            ContentValues values = new ContentValues();
+            values.put(KEY_MIGRATION_LAST_ID, rows.getLong(0));
+            db.update(TABLE_MIGRATIONS, values, KEY_MIGRATION_NAME + " = ?", new String[]{migration.getName()});
+            return count;
+        } finally {
+            rows.close();
+        }
+    }
+
+    private static String getMigrationSelection(DataMigration migration) {
+        String selection = KEY_ID + " > ?";
+        if (migration.getSelection() != null) {
+            selection += " AND (" + migration.getSelection() + ")";
+        }
+        return selection;
+    }
+
+    /**
+     * Method used to put drawing into DrawingStore
+     * Should be called inside transaction, so drawing can't be released by concurrent write before it's referenced
+     * @return hash of stored drawing, null if there is no drawing or it has no ink
+     */
+    private String storeDrawing(Bitmap image) {
+        if (image == null) {
+            return null;
+        }
+        try {
+            return checkAfterTransaction(drawingStore.put(image));
+        } catch (IOException e) {
+            SQLiteException exception = new SQLiteException("Can't store drawing");
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+
+    /**
+     * Method used to put drawing of note into DrawingStore, strokes are stored if note has them
+     * Should be called inside transaction, so drawing can't be released by concurrent write before it's referenced
+     * @return hash of stored drawing, null if there is no drawing or it's empty
+     */
+    private String storeDrawing(Note note) {
+        StrokeDrawing strokes = note.getStrokes();
+        if (strokes == null) {
+            return storeDrawing(note.getImage());
+        }
+        try {
+            return checkAfterTransaction(drawingStore.put(strokes));
+        } catch (IOException e) {
+            SQLiteException exception = new SQLiteException("Can't store drawing");
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+
+    /**
+     * Method used to delete drawing file when no note or revision references it anymore
+     * Should be called inside transaction that removed the reference. File is deleted only after
+     * the transaction ends, by deleteUnreferencedDrawings(), so rolled back transaction doesn't lose it
+     */
+    private void releaseDrawing(String imageHash) {
+        checkAfterTransaction(imageHash);
+    }
+
+    /**
+     * Method used to check stored drawing once transaction ends, its file is deleted if transaction was rolled back
+     * @return the same hash
+     */
+    private String checkAfterTransaction(String imageHash) {
+        if (imageHash != null) {
+            drawingsToCheck.add(imageHash);
+        }
+        return imageHash;
+    }
+
+    /**
+     * Method used to delete files of released and stored drawings that no note or revision references
+     * Does nothing inside transaction, it runs after the outermost one ends. References are counted in
+     * its own write transaction, so concurrent write can't reference the drawing before file is deleted
+     */
+    private void deleteUnreferencedDrawings(SQLiteDatabase db) {
+        if (db.inTransaction()) {
+            return;
+        }
+        String[] imageHashes;
+        synchronized (drawingsToCheck) {
+            if (drawingsToCheck.isEmpty()) {
+                return;
+            }
+            imageHashes = drawingsToCheck.toArray(new String[drawingsToCheck.size()]);
+            drawingsToCheck.clear();
+        }
+        // Hashes that aren't checked because of failure are deleted by runMaintenance() later
+        db.beginTransaction();
+        try {
+            for (String imageHash : imageHashes) {
+                if (!isDrawingReferenced(db, imageHash)) {
+                    drawingStore.delete(imageHash);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static boolean isDrawingReferenced(SQLiteDatabase db, String imageHash) {
+        String[] selectionArgs = new String[]{imageHash};
+        return DatabaseUtils.queryNumEntries(db, TABLE_NOTES, KEY_IMAGE_HASH + " = ?", selectionArgs) > 0
+                || DatabaseUtils.queryNumEntries(db, TABLE_REVISIONS, KEY_IMAGE_HASH + " = ?", selectionArgs) > 0;
+    }
+
+    /**
+     * Method used to delete drawing files no note or revision references, i.e. when app was killed
+     * between transaction that released or stored them and deleteUnreferencedDrawings()
+     * Runs in write transaction, so concurrent write can't reference the drawings meanwhile
+     * @return count of deleted files
+     */
+    private int deleteOrphanDrawings(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            HashSet<String> referencedHashes = new HashSet<>();
+            Cursor cursor = db.rawQuery("SELECT " + KEY_IMAGE_HASH + " FROM " + TABLE_NOTES + " WHERE " + KEY_IMAGE_HASH
+                    + " IS NOT NULL UNION SELECT " + KEY_IMAGE_HASH + " FROM " + TABLE_REVISIONS + " WHERE "
+                    + KEY_IMAGE_HASH + " IS NOT NULL", null);
+            try {
+                while (cursor.moveToNext()) {
+                    referencedHashes.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            int deletedCount = drawingStore.deleteUnreferenced(referencedHashes,
+                    System.currentTimeMillis() - ORPHAN_DRAWING_AGE_MILLIS);
+            db.setTransactionSuccessful();
+            return deletedCount;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Method used to get KEY_VERSION of note that isn't in trash
+     * @return version of notes row, -1 if there's no such note
+     */
+    private static long queryVersion(SQLiteDatabase db, int noteId) {
+        Cursor cursor = db.query(TABLE_NOTES, new String[]{KEY_VERSION}, KEY_ID + " = ? AND " + NOT_DELETED,
+                new String[]{String.valueOf(noteId)}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String queryImageHash(SQLiteDatabase db, int noteId) {
+        Cursor cursor = db.query(TABLE_NOTES, new String[]{KEY_IMAGE_HASH}, KEY_ID + " = ?",
+                new String[]{String.valueOf(noteId)}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Method used to bind Note's columns to first six parameters of insert/update statement
+     * @param encodedSpannable note's spannable encoded by SpanCodec
+     * @param imageHash hash of note's drawing returned by storeDrawing()
+     */
+    private void bindNote(SQLiteStatement statement, Note note, byte[] encodedSpannable, String imageHash, long date) {
+        statement.clearBindings();
+        statement.bindBlob(1, encodedSpannable);
+        if (note.getTitle() != null) {
+            statement.bindString(2, note.getTitle());
+        }
+        if (imageHash != null) {
+            statement.bindString(3, imageHash);
+        }
+        statement.bindLong(4, date);
+        statement.bindString(5, createPreview(note.getSpannable()));
+        statement.bindLong(6, note.getSpannable().length());
+    }
+
+    /**
+     * Method used to get all notes in Database
+     * @return ArrayList of Notes, containing all notes in Database
+     */
+    public ArrayList<Note> getAllNotesAsArrayList() {
+        ArrayList<Note> notes = new ArrayList<>();
+
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.query(TABLE_NOTES, new String[]{KEY_ID, KEY_SPANNABLE_NOTE_ENCODED, KEY_SPANNABLE_NOTE, KEY_DATE_UPDATED, KEY_NOTE_TITLE},
+                NOT_DELETED, null, null, null, null);
+
+        if (cursor.moveToFirst()) {
+            do {
+                int id = Integer.parseInt(cursor.getString(cursor.getColumnIndex(KEY_ID)));
+                Spannable spannable = readSpannable(cursor);
+                Date date = new Date(cursor.getLong(cursor.getColumnIndex(KEY_DATE_UPDATED)));
+
+                String title;
+                try {
+                    title = cursor.getString(cursor.getColumnIndex(KEY_NOTE_TITLE));
+                } catch (Exception e) {
+                    title = "";
+                    e.printStackTrace();
+                }
+
+                Note note = new Note(id, title, spannable, null, date);
+                notes.add(note);
+            }
+            while (cursor.moveToNext());
+        }
+        cursor.close();
+        return notes;
+    }
+
+    /**
+     * Method used to get summaries of all notes in Database
+     * Reads only columns needed by notes list, drawings are never loaded
+     * @return ArrayList of NoteSummaries, containing all notes in Database
+     */
+    public ArrayList<NoteSummary> getAllNoteSummaries() {
+        return queryNoteSummaries(null, null, LIST_ORDER, null);
+    }
+
+    /**
+     * Method used to search notes using full-text search index
+     * Every word of query matches words starting with it, i.e. "not" matches "notepad"
+     * @param query text typed by user
+     * @param limit max count of results
+     * @return ArrayList of NoteSummaries ordered by relevance, previews contain highlighted snippets
+     */
+    public ArrayList<NoteSummary> search(String query, int limit) {
+        String matchExpression = toMatchExpression(query);
+        if (matchExpression == null) {
+            return new ArrayList<>();
+        }
+
+        SQLiteDatabase db = getReadableDatabase();
+
+        // Rank all matches using only match statistics, no note text is read here
+        PriorityQueue<double[]> bestMatches = new PriorityQueue<>(limit + 1, new Comparator<double[]>() {
+            @Override
+            public int compare(double[] first, double[] second) {
+                return Double.compare(first[1], second[1]);
+            }
+        });
+        Cursor cursor = db.rawQuery("SELECT docid, matchinfo(" + TABLE_SEARCH + ", 'pcnx') FROM " + TABLE_SEARCH
+                + " WHERE " + TABLE_SEARCH + " MATCH ? AND docid NOT IN (SELECT " + KEY_ID + " FROM " + TABLE_NOTES
+                + " WHERE " + KEY_DELETED + " IS NOT NULL)", new String[]{matchExpression});
+        try {
+            while (cursor.moveToNext()) {
+                bestMatches.add(new double[]{cursor.getLong(0), rankMatch(cursor.getBlob(1))});
+                if (bestMatches.size() > limit) {
+                    bestMatches.poll();
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (bestMatches.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        ArrayList<String> rankedIds = new ArrayList<>(bestMatches.size());
+        while (!bestMatches.isEmpty()) {
+            rankedIds.add(0, String.valueOf((long) bestMatches.poll()[0]));
+        }
+        String placeholders = TextUtils.join(",", Collections.nCopies(rankedIds.size(), "?"));
+
+        // Snippets of best matches only
+        HashMap<Integer, CharSequence> snippets = new HashMap<>();
+        ArrayList<String> snippetArgs = new ArrayList<>();
+        snippetArgs.add(SNIPPET_HIGHLIGHT_START);
+        snippetArgs.add(SNIPPET_HIGHLIGHT_END);
+        snippetArgs.add("\u2026");
+        snippetArgs.add(matchExpression);
+        snippetArgs.addAll(rankedIds);
+        cursor = db.rawQuery("SELECT docid, snippet(" + TABLE_SEARCH + ", ?, ?, ?, -1, " + SEARCH_SNIPPET_WORDS + ")"
+                + " FROM " + TABLE_SEARCH + " WHERE " + TABLE_SEARCH + " MATCH ? AND docid IN (" + placeholders + ")",
+                snippetArgs.toArray(new String[snippetArgs.size()]));
+        try {
+            while (cursor.moveToNext()) {
+                snippets.put(cursor.getInt(0), highlightSnippet(cursor.getString(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        HashMap<Integer, NoteSummary> summariesById = new HashMap<>();
+        for (NoteSummary summary : queryNoteSummaries(KEY_ID + " IN (" + placeholders + ")",
+                rankedIds.toArray(new String[rankedIds.size()]), null, null)) {
+            summariesById.put(summary.getId(), summary);
+        }
+
+        ArrayList<NoteSummary> results = new ArrayList<>(rankedIds.size());
+        for (String rankedId : rankedIds) {
+            NoteSummary summary = summariesById.get(Integer.parseInt(rankedId));
+            if (summary == null) {
+                continue;
+            }
+            CharSequence snippet = snippets.get(summary.getId());
+            results.add(new NoteSummary(summary.getId(), summary.getTitle(), snippet != null ? snippet : summary.getPreview(),
+                    summary.getCharacterCount(), summary.getDateUpdated(), summary.hasDrawing()));
+        }
+        return results;
+    }
+
+    /**
+     * Method used to convert text typed by user to FTS MATCH expression
+     * @return expression matching notes that contain all words as prefixes, null if there are no words
+     */
+    private static String toMatchExpression(String query) {
+        StringBuilder expression = new StringBuilder();
+        int wordStart = -1;
+        for (int i = 0; i <= query.length(); i++) {
+            boolean isWordCharacter = i < query.length() && Character.isLetterOrDigit(query.charAt(i));
+            if (isWordCharacter && wordStart == -1) {
+                wordStart = i;
+            } else if (!isWordCharacter && wordStart != -1) {
+                if (expression.length() > 0) {
+                    expression.append(' ');
+                }
+                // Quoted, so words like OR and NOT aren't treated as operators
+                expression.append('"').append(query, wordStart, i).append("*\"");
+                wordStart = -1;
+            }
+        }
+        return expression.length() == 0 ? null : expression.toString();
+    }
+
+    /**
+     * Method used to rank single search match
+     * Score is sum of phrase hits weighted by column weight and rarity of phrase among all notes
+     * @param matchInfo result of matchinfo() with 'pcnx' format
+     */
+    private static double rankMatch(byte[] matchInfo) {
+        IntBuffer info = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phraseCount = info.get(0);
+        int columnCount = info.get(1);
+        int rowCount = info.get(2);
+
+        double score = 0;
+        for (int phrase = 0; phrase < phraseCount; phrase++) {
+            for (int column = 0; column < columnCount; column++) {
+                int offset = 3 + 3 * (phrase * columnCount + column);
+                int hitsInRow = info.get(offset);
+                int rowsWithHits = info.get(offset + 2);
+                if (hitsInRow > 0) {
+                    double weight = column < SEARCH_COLUMN_WEIGHTS.length ? SEARCH_COLUMN_WEIGHTS[column] : 1.0;
+                    score += weight * hitsInRow * Math.log(1.0 + (double) rowCount / rowsWithHits);
+                }
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Method used to replace highlight markers of snippet with bold spans
+     */
+    private static CharSequence highlightSnippet(String snippet) {
+        StringBuilder text = new StringBuilder(snippet.length());
+        ArrayList<int[]> highlights = new ArrayList<>();
+        int highlightStart = -1;
+        for (int i = 0; i < snippet.length(); i++) {
+            char c = snippet.charAt(i);
+            if (c == SNIPPET_HIGHLIGHT_START.charAt(0)) {
+                highlightStart = text.length();
+            } else if (c == SNIPPET_HIGHLIGHT_END.charAt(0)) {
+                if (highlightStart != -1) {
+                    highlights.add(new int[]{highlightStart, text.length()});
+                    highlightStart = -1;
+                }
+            } else {
+                text.append(c);
+            }
+        }
+
+        SpannableString highlighted = new SpannableString(text);
+        for (int[] highlight : highlights) {
+            highlighted.setSpan(new StyleSpan(Typeface.BOLD), highlight[0], highlight[1],
+                    Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        return highlighted;
+    }
+
+    /**
+     * Method used to get summary of single note
+     * @param id KEY_ID of note
+     * @return NoteSummary of note, null if it doesn't exist
+     */
+    public NoteSummary getNoteSummary(int id) {
+        ArrayList<NoteSummary> summaries = queryNoteSummaries(KEY_ID + " = ?", new String[]{String.valueOf(id)}, null, null);
+        return summaries.isEmpty() ? null : summaries.get(0);
+    }
+
+    /**
+     * Method used to get version of note, also when it's in trash
+     * @param id KEY_ID of note
+     * @return KEY_VERSION of note, -1 if it doesn't exist or it was purged
+     */
+    public long getNoteVersion(int id) {
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.query(TABLE_NOTES, new String[]{KEY_VERSION}, KEY_ID + " = ?",
+                new String[]{String.valueOf(id)}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Method used to get page of notes list that follows given note
+     * Uses keyset pagination, so cost doesn't depend on position in list
+     * @param anchor last NoteSummary of previous page, null for the first page
+     * @param limit max count of NoteSummaries to return
+     * @return ArrayList of NoteSummaries in list order
+     */
+    public ArrayList<NoteSummary> getNoteSummariesAfter(NoteSummary anchor, int limit) {
+        if (anchor == null) {
+            return queryNoteSummaries(null, null, LIST_ORDER, String.valueOf(limit));
+        }
+        String date = String.valueOf(anchor.getDateUpdated().getTime());
+        return queryNoteSummaries(KEY_DATE_UPDATED + " <= ? AND (" + KEY_DATE_UPDATED + " < ? OR " + KEY_ID + " < ?)",
+                new String[]{date, date, String.valueOf(anchor.getId())}, LIST_ORDER, String.valueOf(limit));
+    }
+
+    /**
+     * Method used to get page of notes list that precedes given note
+     * Uses keyset pagination, so cost doesn't depend on position in list
+     * @param anchor first NoteSummary of next page
+     * @param limit max count of NoteSummaries to return
+     * @return ArrayList of NoteSummaries in list order
+     */
+    public ArrayList<NoteSummary> getNoteSummariesBefore(NoteSummary anchor, int limit) {
+        String date = String.valueOf(anchor.getDateUpdated().getTime());
+        ArrayList<NoteSummary> summaries = queryNoteSummaries(
+                KEY_DATE_UPDATED + " >= ? AND (" + KEY_DATE_UPDATED + " > ? OR " + KEY_ID + " > ?)",
+                new String[]{date, date, String.valueOf(anchor.getId())}, REVERSED_LIST_ORDER, String.valueOf(limit));
+        Collections.reverse(summaries);
+        return summaries;
+    }
+
+    /**
+     * Method used to get page of notes list at given position
+     * Should be used only to jump into the middle of list, cost grows with offset
+     * @param offset position of first NoteSummary to return
+     * @param limit max count of NoteSummaries to return
+     * @return ArrayList of NoteSummaries in list order
+     */
+    public ArrayList<NoteSummary> getNoteSummariesAt(int offset, int limit) {
+        return queryNoteSummaries(null, null, LIST_ORDER, offset + ", " + limit);
+    }
+
+    private ArrayList<NoteSummary> queryNoteSummaries(String selection, String[] selectionArgs,
+                                                      String orderBy, String limit) {
+        ArrayList<NoteSummary> summaries = new ArrayList<>();
+
+        SQLiteDatabase db = getReadableDatabase();
+        selection = selection == null ? NOT_DELETED : NOT_DELETED + " AND (" + selection + ")";
+        Cursor cursor = db.query(TABLE_NOTES, getSummaryColumns(), selection, selectionArgs,
+                null, null, orderBy, limit);
+
+        if (cursor.moveToFirst()) {
+            do {
+                summaries.add(readNoteSummary(cursor));
+            }
+            while (cursor.moveToNext());
+        }
+        cursor.close();
+        return summaries;
+    }
+
+    private static String[] getSummaryColumns() {
+        return new String[]{
+                KEY_ID,
+                KEY_NOTE_TITLE,
+                KEY_PREVIEW,
+                KEY_CHARACTER_COUNT,
+                KEY_DATE_UPDATED,
+                "(" + KEY_IMAGE_HASH + " IS NOT NULL OR " + KEY_IMAGE + " IS NOT NULL) AS " + ALIAS_HAS_DRAWING
+        };
+    }
+
+    private NoteSummary readNoteSummary(Cursor cursor) {
+        int id = cursor.getInt(cursor.getColumnIndex(KEY_ID));
+
+        String title = cursor.getString(cursor.getColumnIndex(KEY_NOTE_TITLE));
+        if (title == null) {
+            title = "";
+        }
+
+        String preview = cursor.getString(cursor.getColumnIndex(KEY_PREVIEW));
+        int characterCount = cursor.getInt(cursor.getColumnIndex(KEY_CHARACTER_COUNT));
+
+        Date date = new Date(cursor.getLong(cursor.getColumnIndex(KEY_DATE_UPDATED)));
+
+        boolean hasDrawing = cursor.getInt(cursor.getColumnIndex(ALIAS_HAS_DRAWING)) != 0;
+
+        return new NoteSummary(id, title, preview, characterCount, date, hasDrawing);
+    }
+
+    /**
+     * Method used to create preview shown on notes list
+     * Runs of whitespace are replaced by single space, only first PREVIEW_LENGTH characters are read
+     * @param text full text of note
+     * @return preview, at most PREVIEW_LENGTH characters long
+     */
+    static String createPreview(CharSequence text) {
+        StringBuilder preview = new StringBuilder(Math.min(text.length(), PREVIEW_LENGTH));
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length() && preview.length() < PREVIEW_LENGTH; i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                pendingSpace = preview.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    if (preview.length() + 1 >= PREVIEW_LENGTH) {
+                        break;
+                    }
+                    preview.append(' ');
+                    pendingSpace = false;
+                }
+                preview.append(c);
+            }
+        }
+        // Don't end with half of surrogate pair
+        int length = preview.length();
+        if (length > 0 && Character.isHighSurrogate(preview.charAt(length - 1))) {
+            preview.setLength(length - 1);
+        }
+        return preview.toString();
+    }
+
+    /**
+     * Method used to read note's text from cursor containing KEY_SPANNABLE_NOTE_ENCODED and KEY_SPANNABLE_NOTE
+     * Rows not converted yet are read from HTML
+     */
+    private Spannable readSpannable(Cursor cursor) {
+        int encodedIndex = cursor.getColumnIndex(KEY_SPANNABLE_NOTE_ENCODED);
+        if (!cursor.isNull(encodedIndex)) {
+            try {
+                return SpanCodec.decode(cursor.getBlob(encodedIndex));
+            } catch (IllegalArgumentException e) {
+                SQLiteException exception = new SQLiteException("Can't decode note");
+                exception.initCause(e);
+                throw exception;
+            }
+        }
+        String html = cursor.getString(cursor.getColumnIndex(KEY_SPANNABLE_NOTE));
+        return html == null ? new SpannableString("") : convertHtmlStringToSpannable(html);
+    }
+
+    /**
+     * Method used to read note's text encoded by SpanCodec from cursor like readSpannable()
+     * Rows not converted yet are read from HTML and encoded
+     */
+    private byte[] readEncodedSpannable(Cursor cursor) {
+        int encodedIndex = cursor.getColumnIndex(KEY_SPANNABLE_NOTE_ENCODED);
+        return cursor.isNull(encodedIndex) ? SpanCodec.encode(readSpannable(cursor)) : cursor.getBlob(encodedIndex);
+    }
+
+    /**
+     * Method used to read HTML written by version 6 and older
+     */
+    private Spannable convertHtmlStringToSpannable(String htmlString) {
+        Spanned spanned;
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.N) {
+            spanned = Html.fromHtml(htmlString, Html.FROM_HTML_MODE_LEGACY);
+        } else {
+            spanned = Html.fromHtml(htmlString);
+        }
+
+        // Html.toHtml() appends newLine to end of text.
+        // This is workaround for that situation, text is copied once no matter how many newLines there are.
+        int end = spanned.length();
+        while (end > 0 && spanned.charAt(end - 1) == '\n') {
+            end--;
+        }
+        if (end < spanned.length()) {
+            spanned = new SpannedString(spanned.subSequence(0, end));
+        }
+        return new SpannableString(spanned);
+    }
+
+    /**
+     * Fills KEY_DATE_UPDATED with epoch millis parsed from formatted KEY_DATE_UPDATED_LEGACY
+     * Dates that can't be parsed are set to the time of migration
+     */
+    private static class LegacyDatesMigration extends DataMigration {
+
+        private final DateFormat legacyFormat = new SimpleDateFormat(DATE_FORMAT_LEGACY, Locale.getDefault());
+
+        LegacyDatesMigration() {
+            super(MIGRATION_LEGACY_DATES);
+        }
+
+        @Override
+        String[] getColumns() {
+            return new String[]{KEY_ID, KEY_DATE_UPDATED_LEGACY};
+        }
+
+        @Override
+        String getSelection() {
+            // Notes saved since upgrade already have their date
+            return KEY_DATE_UPDATED + " = 0";
+        }
+
+        @Override
+        void migrate(SQLiteDatabase db, Cursor rows) {
+            long now = System.currentTimeMillis();
+            SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE_NOTES + " SET "
+                    + KEY_DATE_UPDATED + " = ?, " + INCREMENT_VERSION + " WHERE " + KEY_ID + " = ?");
+            try {
+                while (rows.moveToNext()) {
+                    long millis;
+                    try {
+                        millis = legacyFormat.parse(rows.getString(1)).getTime();
+                    } catch (Exception e) {
+                        millis = now;
+                    }
+                    statement.bindLong(1, millis);
+                    statement.bindLong(2, rows.getInt(0));
+                    statement.executeUpdateDelete();
+                }
+            } finally {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * Indexes notes written before TABLE_SEARCH existed
+     */
+    private class SearchIndexMigration extends DataMigration {
+
+        SearchIndexMigration() {
+            super(MIGRATION_SEARCH_INDEX);
+        }
+
+        @Override
+        String[] getColumns() {
+            return new String[]{KEY_ID, KEY_NOTE_TITLE, KEY_SPANNABLE_NOTE_ENCODED, KEY_SPANNABLE_NOTE};
+        }
+
+        @Override
+        void migrate(SQLiteDatabase db, Cursor rows) {
+            SearchIndexer indexer = new SearchIndexer(db);
+            try {
+                while (rows.moveToNext()) {
+                    indexer.index(rows.getLong(0), rows.getString(1), readSpannable(rows).toString());
+                }
+            } finally {
+                indexer.close();
+            }
+        }
+    }
+
+    /**
+     * Moves drawings stored in rows by version 5 and older to DrawingStore
+     */
+    private class LegacyDrawingsMigration extends DataMigration {
+
+        LegacyDrawingsMigration() {
+            super(MIGRATION_LEGACY_DRAWINGS);
+        }
+
+        @Override
+        String[] getColumns() {
+            return new String[]{KEY_ID, KEY_IMAGE};
+        }
+
+        @Override
+        String getSelection() {
+            return KEY_IMAGE + " IS NOT NULL";
+        }
+
+        @Override
+        void migrate(SQLiteDatabase db, Cursor rows) {
+            SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE_NOTES + " SET "
+                    + KEY_IMAGE_HASH + " = ?, " + KEY_IMAGE + " = NULL WHERE " + KEY_ID + " = ?");
+            try {
+                while (rows.moveToNext()) {
+                    String imageHash = drawingStore.put(rows.getBlob(1));
+                    drawingsToCheck.add(imageHash);
+                    statement.bindString(1, imageHash);
+                    statement.bindLong(2, rows.getInt(0));
+                    statement.executeUpdateDelete();
+                }
+            } catch (IOException e) {
+                // Batch is rolled back, drawings stay in rows until next run and stored files are deleted
+                SQLiteException exception = new SQLiteException("Can't store drawing");
+                exception.initCause(e);
+                throw exception;
+            } finally {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * Replaces HTML written by version 6 and older with encoded spannable
+     */
+    private class LegacySpannablesMigration extends DataMigration {
+
+        LegacySpannablesMigration() {
+            super(MIGRATION_LEGACY_SPANNABLES);
+        }
+
+        @Override
+        String[] getColumns() {
+            return new String[]{KEY_ID, KEY_SPANNABLE_NOTE_ENCODED, KEY_SPANNABLE_NOTE};
+        }
+
+        @Override
+        String getSelection() {
+            return KEY_SPANNABLE_NOTE_ENCODED + " IS NULL AND " + KEY_SPANNABLE_NOTE + " IS NOT NULL";
+        }
+
+        @Override
+        void migrate(SQLiteDatabase db, Cursor rows) {
+            SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE_NOTES + " SET "
+                    + KEY_SPANNABLE_NOTE_ENCODED + " = ?, " + KEY_SPANNABLE_NOTE + " = NULL WHERE " + KEY_ID + " = ?");
+            try {
+                while (rows.moveToNext()) {
+                    statement.bindBlob(1, SpanCodec.encode(readSpannable(rows)));
+                    statement.bindLong(2, rows.getInt(0));
+                    statement.executeUpdateDelete();
+                }
+            } finally {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * Fills KEY_PREVIEW and KEY_CHARACTER_COUNT of notes written by version 7 and older
+     */
+    private class PreviewsMigration extends DataMigration {
+
+        PreviewsMigration() {
+            super(MIGRATION_PREVIEWS);
+        }
+
+        @Override
+        String[] getColumns() {
+            return new String[]{KEY_ID, KEY_SPANNABLE_NOTE_ENCODED, KEY_SPANNABLE_NOTE};
+        }
+
+        @Override
+        void migrate(SQLiteDatabase db, Cursor rows) {
+            SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE_NOTES + " SET "
+                    + KEY_PREVIEW + " = ?, " + KEY_CHARACTER_COUNT + " = ? WHERE " + KEY_ID + " = ?");
+            try {
+                while (rows.moveToNext()) {
+                    Spannable spannable = readSpannable(rows);
+                    statement.bindString(1, createPreview(spannable));
+                    statement.bindLong(2, spannable.length());
+                    statement.bindLong(3, rows.getInt(0));
+                    statement.executeUpdateDelete();
+                }
+            } finally {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * Precompiled statements used to keep TABLE_SEARCH in sync with TABLE_NOTES
+     * Should be used inside the transaction that writes to TABLE_NOTES
+     */
+    private static class SearchIndexer {
+
+        private final SQLiteStatement deleteStatement;
+        private final SQLiteStatement insertStatement;
+
+        SearchIndexer(SQLiteDatabase db) {
+            deleteStatement = db.compileStatement("DELETE FROM " + TABLE_SEARCH + " WHERE docid = ?");
+            insertStatement = db.compileStatement("INSERT INTO " + TABLE_SEARCH
+                    + " (docid, " + KEY_SEARCH_TITLE + ", " + KEY_SEARCH_TEXT + ") VALUES (?, ?, ?)");
+        }
+
+        void index(long noteId, Note note) {
+            index(noteId, note.getTitle(), note.getSpannable().toString());
+        }
+
+        void index(long noteId, String title, String plainText) {
+            deleteStatement.bindLong(1, noteId);
+            deleteStatement.executeUpdateDelete();
+
+            insertStatement.bindLong(1, noteId);
+            insertStatement.bindString(2, title == null ? "" : title);
+            insertStatement.bindString(3, plainText);
+            insertStatement.executeInsert();
+        }
+
+        void close() {
+            deleteStatement.close();
+            insertStatement.close();
+        }
+    }
+
+    /**
+     * Row of TABLE_REVISIONS read by getRevision()
+     */
+    private static class RevisionRow {
+
+        static final String[] COLUMNS = {KEY_REVISION_NOTE_ID, KEY_NOTE_TITLE, KEY_DATE_UPDATED, KEY_REVISION_KEYFRAME,
+                KEY_REVISION_TEXT, KEY_REVISION_DRAWING_MODE, KEY_IMAGE_HASH, KEY_REVISION_DRAWING_DELTA};
+
+        final int noteId;
+        final String title;
+        final long dateUpdated;
+        final boolean isKeyframe;
+        final byte[] text;
+        final int drawingMode;
+        final String imageHash;
+        final byte[] drawingDelta;
+
+        RevisionRow(Cursor cursor) {
+            noteId = cursor.getInt(0);
+            title = cursor.getString(1);
+            dateUpdated = cursor.getLong(2);
+            isKeyframe = cursor.getInt(3) != 0;
+            text = cursor.getBlob(4);
+            drawingMode = cursor.getInt(5);
+            imageHash = cursor.getString(6);
+            drawingDelta = cursor.getBlob(7);
+        }
+    }
 }
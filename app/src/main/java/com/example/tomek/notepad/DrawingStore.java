@@ -0,0 +1,262 @@
+package com.example.tomek.notepad;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+
+/**
+ * Class used to keep note drawings as files named by hash of their content
+ * Notes table keeps only the hash, identical drawings share one file
+ */
+public class DrawingStore {
+
+    private static final String DIRECTORY_NAME = "drawings";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File directory;
+    private final ImageCodec codec;
+
+    public DrawingStore(Context context) {
+        this(context, ImageCodec.DEFAULT);
+    }
+
+    /**
+     * @param codec format raster drawings are stored in, drawings stored in any format are loaded
+     */
+    public DrawingStore(Context context, ImageCodec codec) {
+        directory = new File(context.getFilesDir(), DIRECTORY_NAME);
+        this.codec = codec;
+    }
+
+    /**
+     * Method used to store drawing
+     * It's encoded straight to file while its hash is computed
+     * @param bitmap drawing to store
+     * @return hash of stored drawing, used as its name. Null if drawing is empty, nothing is stored then
+     */
+    public String put(Bitmap bitmap) throws IOException {
+        File tempFile = createTempFile();
+        MessageDigest digest = createDigest();
+        OutputStream stream = new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)), digest);
+        boolean hasInk;
+        try {
+            hasInk = codec.encode(bitmap, stream);
+        } finally {
+            stream.close();
+        }
+        if (!hasInk) {
+            tempFile.delete();
+            return null;
+        }
+        return moveToStore(tempFile, toHex(digest.digest()));
+    }
+
+    /**
+     * Method used to store drawing made of strokes
+     * Encoded strokes take few kilobytes at most, so they're hashed in memory
+     * @param strokes drawing to store
+     * @return hash of stored drawing, used as its name. Null if drawing has no strokes, nothing is stored then
+     */
+    public String put(StrokeDrawing strokes) throws IOException {
+        if (strokes.isEmpty()) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        strokes.write(bytes);
+        return put(bytes.toByteArray());
+    }
+
+    /**
+     * Method used to store already encoded drawing
+     * @param bytes encoded drawing
+     * @return hash of stored drawing, used as its name
+     */
+    public String put(byte[] bytes) throws IOException {
+        File tempFile = createTempFile();
+        OutputStream stream = new FileOutputStream(tempFile);
+        try {
+            stream.write(bytes);
+        } finally {
+            stream.close();
+        }
+        return moveToStore(tempFile, toHex(createDigest().digest(bytes)));
+    }
+
+    /**
+     * Method used to store encoded drawing read from stream, i.e. from archive
+     * Stream is read till its end but not closed. Content is verified before it's moved into the store
+     * @param input stream of encoded drawing
+     * @param hash expected hash of drawing
+     * @return hash of stored drawing, used as its name
+     * @throws IOException if content doesn't match the hash, nothing is stored then
+     */
+    public String put(InputStream input, String hash) throws IOException {
+        File tempFile = createTempFile();
+        DigestInputStream digestStream = new DigestInputStream(input, createDigest());
+        OutputStream stream = new BufferedOutputStream(new FileOutputStream(tempFile));
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = digestStream.read(buffer)) != -1) {
+                stream.write(buffer, 0, count);
+            }
+        } finally {
+            stream.close();
+        }
+        if (!hash.equals(toHex(digestStream.getMessageDigest().digest()))) {
+            tempFile.delete();
+            throw new IOException("Drawing " + hash + " is corrupted");
+        }
+        return moveToStore(tempFile, hash);
+    }
+
+    /**
+     * Method used to get file of stored drawing
+     * @param hash hash returned by put()
+     */
+    public File getFile(String hash) {
+        return new File(directory, hash);
+    }
+
+    /**
+     * Method used to decode stored drawing
+     * @param hash hash returned by put()
+     * @return decoded drawing, null if it can't be read
+     */
+    public Bitmap load(String hash) {
+        return BitmapConverter.getImage(getFile(hash));
+    }
+
+    /**
+     * Method used to read stored drawing in the format it's stored in, file is opened once
+     * @param hash hash returned by put()
+     * @return strokes of drawing stored as StrokeDrawing, decoded raster of any other one. Null if it can't be read
+     */
+    public StoredDrawing loadDrawing(String hash) {
+        try {
+            InputStream stream = new BufferedInputStream(new FileInputStream(getFile(hash)));
+            try {
+                stream.mark(StrokeDrawing.MAGIC.length);
+                StrokeDrawing strokes = StrokeDrawing.read(stream);
+                if (strokes != null) {
+                    return new StoredDrawing(strokes, null);
+                }
+                stream.reset();
+                return new StoredDrawing(null, TiledDrawing.read(stream));
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Method used to delete stored drawing
+     * Caller has to make sure no note references it anymore
+     */
+    public void delete(String hash) {
+        getFile(hash).delete();
+    }
+
+    /**
+     * Method used to delete stored drawings not in given set, and temp files left by interrupted put()
+     * @param referencedHashes hashes of drawings to keep
+     * @param modifiedBefore only files last modified before this time are deleted, younger ones may be
+     *                       about to be referenced
+     * @return count of deleted files
+     */
+    public int deleteUnreferenced(Set<String> referencedHashes, long modifiedBefore) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int deletedCount = 0;
+        for (File file : files) {
+            if (!referencedHashes.contains(file.getName()) && file.lastModified() < modifiedBefore && file.delete()) {
+                deletedCount++;
+            }
+        }
+        return deletedCount;
+    }
+
+    /**
+     * Method used to delete all stored drawings
+     */
+    public void clear() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private File createTempFile() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        return File.createTempFile("drawing", TEMP_SUFFIX, directory);
+    }
+
+    private String moveToStore(File tempFile, String hash) throws IOException {
+        File file = getFile(hash);
+        if (file.exists()) {
+            // Same drawing is already stored, it's touched so it isn't taken for old unreferenced one
+            tempFile.delete();
+            file.setLastModified(System.currentTimeMillis());
+        } else if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Can't store drawing " + hash);
+        }
+        return hash;
+    }
+
+    static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Drawing read by loadDrawing(), only one of its fields is set
+     */
+    public static class StoredDrawing {
+
+        final StrokeDrawing strokes;
+        final Bitmap image;
+
+        StoredDrawing(StrokeDrawing strokes, Bitmap image) {
+            this.strokes = strokes;
+            this.image = image;
+        }
+    }
+}
@@ -8,13 +8,63 @@ import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.util.TypedValue;
 import android.view.MotionEvent;
 import android.view.View;
 
+import java.util.Arrays;
+
 public class DrawingView extends View {
 
+    /**
+     * Interface of listener of finished strokes, used to journal drawing
+     */
+    public interface OnStrokeListener {
+        void onStroke(Stroke stroke);
+
+        void onClear();
+    }
+
+    /**
+     * Single finished stroke, enough to draw it again the same way
+     */
+    public static class Stroke {
+
+        final int color;
+        final float width;
+        final boolean erase;
+        // Pairs of x and y, first of them is where stroke started
+        final float[] points;
+        // Size of canvas stroke was drawn on
+        final int canvasWidth;
+        final int canvasHeight;
+
+        Stroke(int color, float width, boolean erase, float[] points, int canvasWidth, int canvasHeight) {
+            this.color = color;
+            this.width = width;
+            this.erase = erase;
+            this.points = points;
+            this.canvasWidth = canvasWidth;
+            this.canvasHeight = canvasHeight;
+        }
+
+        /**
+         * Method used to draw stroke with the same Paint and Path DrawingView used
+         */
+        void drawOn(Canvas canvas) {
+            Paint paint = createPaint(color, width, erase);
+            Path path = new Path();
+            path.moveTo(points[0], points[1]);
+            for (int i = 2; i + 1 < points.length; i += 2) {
+                path.lineTo(points[i], points[i + 1]);
+            }
+            canvas.drawPath(path, paint);
+        }
+    }
+
     //initial color
     private static final int DEFAULT_PAINT_COLOR = Color.BLACK;
     //drawing path
@@ -25,10 +75,21 @@ public class DrawingView extends View {
     private Canvas drawCanvas;
     //canvas bitmap
     private Bitmap canvasBitmap;
+    //strokes canvasBitmap is rasterized from, null if drawing is raster only
+    private StrokeDrawing strokes;
     //brush size
     private float brushSize;
     //erase mode
     private boolean erase;
+    //points of stroke being drawn, pairs of x and y
+    private float[] strokePoints = new float[64];
+    private int strokePointCount;
+    //bounds of points of stroke being drawn, not padded by brush size
+    private final RectF strokeBounds = new RectF();
+    //reused by onDraw(), so drawing frame doesn't allocate
+    private final Rect clipBounds = new Rect();
+    private final RectF paddedStrokeBounds = new RectF();
+    private OnStrokeListener strokeListener;
 
     public DrawingView(Context context, AttributeSet attrs){
         super(context, attrs);
@@ -54,45 +115,143 @@ public class DrawingView extends View {
 
     }
 
+    /**
+     * Method used to create Paint configured like the one user draws with
+     */
+    private static Paint createPaint(int color, float width, boolean erase) {
+        Paint paint = new Paint();
+        paint.setColor(color);
+        paint.setAntiAlias(true);
+        paint.setStrokeWidth(width);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeJoin(Paint.Join.ROUND);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        if (erase) {
+            paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+        }
+        return paint;
+    }
+
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
-        if (canvasBitmap == null) {
-            canvasBitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+        if (strokes != null) {
+            // Strokes are drawn again scaled to new width, nothing below the view is cut off.
+            // Old bitmap is pooled first, so it's reused for the new size if it fits
+            BitmapPool.getInstance().put(canvasBitmap);
+            canvasBitmap = strokes.rasterize(w, Math.max(h, strokes.getScaledHeight(w)));
             drawCanvas = new Canvas(canvasBitmap);
         }
-        else {
-            canvasBitmap = Bitmap.createBitmap(canvasBitmap);
-            canvasBitmap = canvasBitmap.copy(Bitmap.Config.ARGB_8888, true);
+        else if (canvasBitmap == null) {
+            canvasBitmap = BitmapPool.getInstance().get(w, h);
             drawCanvas = new Canvas(canvasBitmap);
+            strokes = new StrokeDrawing(w, h);
         }
+        // Raster drawing keeps its size, its mutable bitmap is drawn on as it is
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        // View isn't shown anymore, i.e. activity is recreated after rotation, next one reuses the bitmap
+        BitmapPool.getInstance().put(canvasBitmap);
+        canvasBitmap = null;
+        drawCanvas = null;
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
-        canvas.drawBitmap(canvasBitmap, 0, 0, canvasPaint);
-        canvas.drawPath(drawPath, drawPaint);
+        if (canvasBitmap == null) {
+            // Pooled when view was detached
+            return;
+        }
+        // Only dirty part of the view is drawn when it's rendered in software, it's the clip then
+        if (!canvas.getClipBounds(clipBounds)) {
+            return;
+        }
+        if (clipBounds.intersect(0, 0, canvasBitmap.getWidth(), canvasBitmap.getHeight())) {
+            canvas.drawBitmap(canvasBitmap, clipBounds, clipBounds, canvasPaint);
+        }
+        if (!drawPath.isEmpty()) {
+            getPaddedStrokeBounds(paddedStrokeBounds);
+            if (!canvas.quickReject(paddedStrokeBounds, Canvas.EdgeType.AA)) {
+                canvas.drawPath(drawPath, drawPaint);
+            }
+        }
     }
 
     public boolean draw(float x, float y, int motionAction) {
         switch (motionAction) {
             case MotionEvent.ACTION_DOWN:
                 drawPath.moveTo(x, y);
+                strokePointCount = 0;
+                addStrokePoint(x, y);
+                strokeBounds.set(x, y, x, y);
+                invalidateSegment(x, y, x, y);
                 break;
-            case MotionEvent.ACTION_MOVE:
+            case MotionEvent.ACTION_MOVE: {
+                // Only the new segment changes on screen, the rest of the path is drawn already
+                float lastX = strokePointCount > 0 ? strokePoints[strokePointCount - 2] : x;
+                float lastY = strokePointCount > 0 ? strokePoints[strokePointCount - 1] : y;
                 drawPath.lineTo(x, y);
+                addStrokePoint(x, y);
+                strokeBounds.union(x, y);
+                invalidateSegment(lastX, lastY, x, y);
                 break;
+            }
             case MotionEvent.ACTION_UP:
                 drawCanvas.drawPath(drawPath, drawPaint);
                 drawPath.reset();
+                // Stroke moves from path to bitmap, it looks the same but bitmap has to be drawn again
+                getPaddedStrokeBounds(paddedStrokeBounds);
+                invalidate((int) paddedStrokeBounds.left, (int) paddedStrokeBounds.top,
+                        (int) Math.ceil(paddedStrokeBounds.right), (int) Math.ceil(paddedStrokeBounds.bottom));
+                if (strokePointCount > 0) {
+                    Stroke stroke = new Stroke(drawPaint.getColor(), brushSize, erase,
+                            Arrays.copyOf(strokePoints, strokePointCount), canvasBitmap.getWidth(), canvasBitmap.getHeight());
+                    if (strokes != null) {
+                        strokes.add(stroke);
+                    }
+                    if (strokeListener != null) {
+                        strokeListener.onStroke(stroke);
+                    }
+                }
                 break;
             default:
                 return false;
         }
-        invalidate();
         return true;
     }
 
+    /**
+     * Method used to invalidate area of stroke segment, padded by brush size so its round caps and antialiased
+     * edges are included
+     */
+    private void invalidateSegment(float startX, float startY, float endX, float endY) {
+        float padding = getStrokePadding();
+        invalidate((int) (Math.min(startX, endX) - padding), (int) (Math.min(startY, endY) - padding),
+                (int) Math.ceil(Math.max(startX, endX) + padding), (int) Math.ceil(Math.max(startY, endY) + padding));
+    }
+
+    private void getPaddedStrokeBounds(RectF bounds) {
+        float padding = getStrokePadding();
+        bounds.set(strokeBounds.left - padding, strokeBounds.top - padding,
+                strokeBounds.right + padding, strokeBounds.bottom + padding);
+    }
+
+    private float getStrokePadding() {
+        // Half of the brush, pixel of antialiasing and pixel of rounding
+        return brushSize / 2 + 2;
+    }
+
+    private void addStrokePoint(float x, float y) {
+        if (strokePointCount + 2 > strokePoints.length) {
+            strokePoints = Arrays.copyOf(strokePoints, strokePoints.length * 2);
+        }
+        strokePoints[strokePointCount++] = x;
+        strokePoints[strokePointCount++] = y;
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         return draw(event.getX(), event.getY(), event.getAction());
@@ -100,6 +259,11 @@ public class DrawingView extends View {
 
     public void startNew(){
         drawCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+        // Drawing started from scratch is made of strokes, even if the cleared one was raster
+        strokes = new StrokeDrawing(canvasBitmap.getWidth(), canvasBitmap.getHeight());
+        if (strokeListener != null) {
+            strokeListener.onClear();
+        }
         invalidate();
     }
 
@@ -127,11 +291,38 @@ public class DrawingView extends View {
         }
     }
 
-    public Bitmap getCanvasBitmap() {
-        return canvasBitmap;
+    public void setOnStrokeListener(OnStrokeListener listener) {
+        strokeListener = listener;
     }
 
+    /**
+     * Method used to show drawing of loaded note, view can be laid out already
+     * @param bmp loaded drawing, view takes over mutable one and copies immutable one. Null keeps blank canvas
+     */
     public void setBitmap(Bitmap bmp) {
-        canvasBitmap = bmp;
+        if (bmp != null && bmp != canvasBitmap) {
+            BitmapPool.getInstance().put(canvasBitmap);
+            canvasBitmap = bmp.isMutable() ? bmp : BitmapPool.getInstance().getCopy(bmp);
+            drawCanvas = new Canvas(canvasBitmap);
+            strokes = null;
+        }
+        invalidate();
+    }
+
+    /**
+     * Method used to show drawing made of strokes, it's rasterized at width of the view
+     * @param drawing loaded strokes, they're copied
+     */
+    public void setStrokes(StrokeDrawing drawing) {
+        strokes = new StrokeDrawing(drawing);
+        BitmapPool.getInstance().put(canvasBitmap);
+        if (getWidth() > 0 && getHeight() > 0) {
+            canvasBitmap = strokes.rasterize(getWidth(), Math.max(getHeight(), strokes.getScaledHeight(getWidth())));
+            drawCanvas = new Canvas(canvasBitmap);
+        } else {
+            // Rasterized by onSizeChanged()
+            canvasBitmap = null;
+        }
+        invalidate();
     }
 }
@@ -0,0 +1,102 @@
+package com.example.tomek.notepad;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Format raster drawings are encoded to by DrawingStore and BitmapConverter
+ *
+ * All formats identify themselves by their first bytes, so any of them is decoded by TiledDrawing.read()
+ * and codec can be changed without migrating stored drawings.
+ * ImageCodecBenchmark compares them on stroke drawings, TILES is the default:
+ * drawings are mostly transparent and it encodes only tiles with ink, so its cost grows with ink
+ * rather than with screen size.
+ * Codecs without format of their own encode by Bitmap.compress(), BitmapFactory decodes them.
+ */
+public enum ImageCodec {
+
+    /**
+     * Deflated tiles with ink, see TiledDrawing
+     */
+    TILES("tiles", null, 0) {
+        @Override
+        public boolean encode(Bitmap bitmap, OutputStream output) throws IOException {
+            return TiledDrawing.write(bitmap, output) > 0;
+        }
+
+        @Override
+        public boolean isLossless() {
+            return true;
+        }
+    },
+
+    /**
+     * PNG, format of drawings kept in notes table by older versions
+     */
+    PNG("png", Bitmap.CompressFormat.PNG, 0),
+
+    /**
+     * WebP at highest quality, it's lossless since Android 10 only, older versions encode it lossy
+     */
+    WEBP("webp", Bitmap.CompressFormat.WEBP, 100);
+
+    public static final ImageCodec DEFAULT = TILES;
+
+    private final String mName;
+    // Format and quality passed to Bitmap.compress(), format is null for codecs that encode by themselves
+    private final Bitmap.CompressFormat mFormat;
+    private final int mQuality;
+
+    ImageCodec(String name, Bitmap.CompressFormat format, int quality) {
+        mName = name;
+        mFormat = format;
+        mQuality = quality;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Method used to encode drawing straight to stream, stream isn't closed
+     * Empty drawing is encoded too, so written bytes can always be decoded
+     * @param bitmap drawing to encode
+     * @return false if drawing is empty, written bytes don't have to be kept then
+     */
+    public boolean encode(Bitmap bitmap, OutputStream output) throws IOException {
+        if (!bitmap.compress(mFormat, mQuality, output)) {
+            throw new IOException("Can't encode drawing as " + mName);
+        }
+        return !isEmpty(bitmap);
+    }
+
+    /**
+     * @return true if decoded drawing has exactly the same pixels as encoded one
+     */
+    public boolean isLossless() {
+        // Bitmap.compress() stores colors unpremultiplied, semi-transparent edges of strokes come back rounded
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+
+    /**
+     * Method used to find out if drawing has no ink, row by row so no full copy of pixels is made
+     */
+    static boolean isEmpty(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int[] row = new int[width];
+        for (int y = 0; y < bitmap.getHeight(); y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            if (!TileDelta.isRangeEmpty(row, width)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
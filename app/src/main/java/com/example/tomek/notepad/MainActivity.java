@@ -6,6 +6,7 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.view.ContextMenu;
@@ -17,31 +18,64 @@ import android.view.inputmethod.InputMethodManager;
 import android.widget.AdapterView;
 import android.widget.ListView;
 import android.widget.SearchView;
-import android.widget.Toast;
 
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
  * Main Activity class
  */
 public class MainActivity extends AppCompatActivity {
 
-    // Array used to backup data before using search function
-    private ArrayList<Note> allNotesSearchArray;
+    // Max count of notes shown as search results
+    private static final int SEARCH_RESULTS_LIMIT = 100;
 
-    // Database Handler
-    private DatabaseHandler dbHandler;
+    // Request codes of documents chosen for export and import
+    private static final int REQUEST_EXPORT_NOTES = 1;
+    private static final int REQUEST_IMPORT_NOTES = 2;
+    private static final String ARCHIVE_MIME_TYPE = "application/zip";
+    private static final String ARCHIVE_FILE_NAME = "notes.zip";
+
+    // Repository used to access notes, on threads of dbExecutor
+    private NoteRepository repository;
+    private DatabaseExecutor dbExecutor;
 
     // Alert dialogs for back button and delete all notes button
     private AlertDialog alertDialogDeleteAll;
     private AlertDialog alertDialogDeleteSingleNote;
 
     // Note selected on menu
-    private Note selectedNote;
+    private NoteSummary selectedNote;
 
     // Variables used to handle note list
-    public static NoteAdapter noteAdapter;
-    public static ListView listView;
+    private PagedNoteAdapter noteAdapter;
+    private ListView listView;
+
+    // Adapter used to show search results, null when search isn't used
+    private NoteAdapter searchAdapter;
+
+    // Query of shown search results
+    private String searchQuery;
+
+    // Search running in background, null when none is
+    private Future<ArrayList<NoteSummary>> searchLoad;
+
+    // Runs data migrations left by database upgrade, its progress is shown as toolbar subtitle
+    private MigrationRunner migrationRunner;
+    private final MigrationRunner.OnMigrationProgressListener migrationProgressListener =
+            new MigrationRunner.OnMigrationProgressListener() {
+                @Override
+                public void onMigrationProgress(int migratedCount, int totalCount) {
+                    getSupportActionBar().setSubtitle(getString(R.string.migration_progress,
+                            100 * migratedCount / totalCount));
+                }
+
+                @Override
+                public void onMigrationFinished(boolean isDone) {
+                    getSupportActionBar().setSubtitle(null);
+                }
+            };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -50,12 +84,38 @@ public class MainActivity extends AppCompatActivity {
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
 
-        // Create DatabaseHandler
-        dbHandler = new DatabaseHandler(getApplicationContext());
+        // Get shared NoteRepository
+        repository = NoteRepository.getInstance(this);
+        dbExecutor = DatabaseExecutor.getInstance();
 
         // Add items to ListView
         listView = (ListView) findViewById(R.id.listView);
-        populateListView(dbHandler.getAllNotesAsArrayList());
+        noteAdapter = new PagedNoteAdapter(this, R.layout.listview_item_row, repository);
+        listView.setAdapter(noteAdapter);
+
+        // Keep list and search results in sync with notes saved in background
+        repository.observe(this, noteAdapter);
+        repository.observe(this, new NoteRepository.OnNotesChangedListener() {
+            @Override
+            public void onNotesChanged(NotesChange change) {
+                if (searchAdapter != null) {
+                    search(searchQuery);
+                }
+            }
+        });
+
+        // Migrate notes saved by old app versions in background
+        migrationRunner = MigrationRunner.getInstance(this);
+        migrationRunner.start();
+
+        // Write edits left in journals by killed process to notes
+        NoteJournal.compactAll(this);
+
+        // Delete notes left in trash by killed process
+        TrashPurger.getInstance(this).start();
+
+        // Reclaim space of deleted notes while device is idle
+        MaintenanceJobService.schedule(this);
 
         // Assign listView to context menu
         registerForContextMenu(listView);
@@ -78,12 +138,41 @@ public class MainActivity extends AppCompatActivity {
 
         listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                selectedNote = (Note) parent.getAdapter().getItem(position);
+                selectedNote = (NoteSummary) parent.getAdapter().getItem(position);
+                if (selectedNote == null) {
+                    // Row of page that's still loading
+                    return;
+                }
                 editNote(selectedNote.getId());
             }
         });
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        migrationRunner.addListener(migrationProgressListener);
+    }
+
+    @Override
+    protected void onStop() {
+        migrationRunner.removeListener(migrationProgressListener);
+        getSupportActionBar().setSubtitle(null);
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        cancelSearch();
+        super.onDestroy();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        BitmapPool.getInstance().trimMemory(level);
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Creating menu
@@ -92,27 +181,20 @@ public class MainActivity extends AppCompatActivity {
         SearchView searchView = (SearchView) menu.findItem(R.id.search).getActionView();
         searchView.setQueryHint(searchView.getContext().getResources().getString(R.string.search_hint));
 
-        searchView.setOnSearchClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                allNotesSearchArray = (ArrayList<Note>) noteAdapter.getData();
-            }
-        });
-
         final SearchView.OnQueryTextListener queryTextListener = new SearchView.OnQueryTextListener() {
             @Override
             public boolean onQueryTextChange(String newText) {
 
-                ArrayList<Note> filteredNotesArrayList = new ArrayList<>();
-                for (Note note : allNotesSearchArray) {
-                    if (note.getRawText().contains(newText)) {
-                        filteredNotesArrayList.add(note);
-                    }
+                if (newText.length() == 0) {
+                    cancelSearch();
+                    searchAdapter = null;
+                    searchQuery = null;
+                    listView.setAdapter(noteAdapter);
+                } else {
+                    searchQuery = newText;
+                    search(newText);
                 }
 
-                populateListView(filteredNotesArrayList);
-                noteAdapter.notifyDataSetChanged();
-
                 return true;
             }
 
@@ -138,8 +220,6 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onClick(DialogInterface dialog, int which) {
                 deleteAllNotes();
-                Toast.makeText(MainActivity.this, getString(R.string.delete_notes_success),
-                        Toast.LENGTH_SHORT).show();
             }
         });
 
@@ -162,11 +242,18 @@ public class MainActivity extends AppCompatActivity {
         builder.setPositiveButton(this.getString(R.string.ok_button), new DialogInterface.OnClickListener() {
             @Override
             public void onClick(DialogInterface dialog, int which) {
-                dbHandler.deleteNote(selectedNote);
-                noteAdapter.remove(selectedNote);
-                noteAdapter.notifyDataSetChanged();
-                Toast.makeText(MainActivity.this, String.format(getString(R.string.note_deleted), selectedNote.getId()),
-                        Toast.LENGTH_SHORT).show();
+                final int noteId = selectedNote.getId();
+                dbExecutor.write(new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return repository.trashNotes(noteId);
+                    }
+                }, new DatabaseExecutor.Callback<Long>() {
+                    @Override
+                    public void onResult(Long trashId) {
+                        showUndoDelete(String.format(getString(R.string.note_deleted), noteId), trashId);
+                    }
+                });
             }
         });
 
@@ -194,12 +281,75 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Method used to delete all notes via DatabaseHandler
+     * Method used to move all notes to trash via NoteRepository, deletion can be undone until TrashPurger runs
      */
     public void deleteAllNotes() {
-        dbHandler.clearAllNotes();
-        noteAdapter.clear();
-        noteAdapter.notifyDataSetChanged();
+        dbExecutor.write(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return repository.trashAllNotes();
+            }
+        }, new DatabaseExecutor.Callback<Long>() {
+            @Override
+            public void onResult(Long trashId) {
+                showUndoDelete(getString(R.string.delete_notes_success), trashId);
+            }
+        });
+    }
+
+    /**
+     * Method used to show Snackbar that lets user restore trashed notes
+     * @param message message about deleted notes
+     * @param trashId id of trash batch returned by NoteRepository
+     */
+    private void showUndoDelete(String message, final long trashId) {
+        Snackbar.make(findViewById(R.id.fab), message, Snackbar.LENGTH_LONG)
+                .setAction(R.string.undo, new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        dbExecutor.write(new Runnable() {
+                            @Override
+                            public void run() {
+                                repository.restoreTrashedNotes(trashId);
+                            }
+                        });
+                    }
+                })
+                .show();
+        TrashPurger.getInstance(this).start();
+    }
+
+    /**
+     * Method used to let user choose document that notes are exported to
+     */
+    public void exportNotes(MenuItem menuItem) {
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(ARCHIVE_MIME_TYPE);
+        intent.putExtra(Intent.EXTRA_TITLE, ARCHIVE_FILE_NAME);
+        startActivityForResult(intent, REQUEST_EXPORT_NOTES);
+    }
+
+    /**
+     * Method used to let user choose archive that notes are imported from
+     */
+    public void importNotes(MenuItem menuItem) {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(ARCHIVE_MIME_TYPE);
+        startActivityForResult(intent, REQUEST_IMPORT_NOTES);
+    }
+
+    /**
+     * Handle documents chosen for export and import
+     */
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if ((requestCode == REQUEST_EXPORT_NOTES || requestCode == REQUEST_IMPORT_NOTES)
+                && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            new NoteArchiveTask(this, requestCode == REQUEST_EXPORT_NOTES, data.getData()).execute();
+        }
+        super.onActivityResult(requestCode, resultCode, data);
     }
 
     /**
@@ -230,26 +380,49 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Method used to fill ListView
+     * Method used to search notes in background and show results, replacing search that's still running
      *
-     * @param note Array of Notes containing all Notes in Database
+     * @param query text typed into SearchView
      */
-    void populateListView(ArrayList<Note> note) {
-        noteAdapter = new NoteAdapter(this,
-                R.layout.listview_item_row, note);
-        listView.setAdapter(noteAdapter);
+    private void search(final String query) {
+        cancelSearch();
+        searchLoad = dbExecutor.read(new Callable<ArrayList<NoteSummary>>() {
+            @Override
+            public ArrayList<NoteSummary> call() {
+                return repository.search(query, SEARCH_RESULTS_LIMIT);
+            }
+        }, new DatabaseExecutor.Callback<ArrayList<NoteSummary>>() {
+            @Override
+            public void onResult(ArrayList<NoteSummary> notes) {
+                searchLoad = null;
+                if (searchAdapter != null) {
+                    searchAdapter.clear();
+                    searchAdapter.addAll(notes);
+                } else {
+                    populateSearchResults(notes);
+                }
+            }
+        });
     }
 
-    public void setListViewData(ArrayList<Note> allNotes, Note newNote) {
-        if (noteAdapter != null) {
-            if (newNote != null){
-                noteAdapter.add(newNote);
-            }
-            noteAdapter.setData(allNotes);
-            noteAdapter.notifyDataSetChanged();
+    private void cancelSearch() {
+        if (searchLoad != null) {
+            searchLoad.cancel(false);
+            searchLoad = null;
         }
     }
 
+    /**
+     * Method used to fill ListView with search results
+     *
+     * @param notes Array of NoteSummaries matching search query
+     */
+    void populateSearchResults(ArrayList<NoteSummary> notes) {
+        searchAdapter = new NoteAdapter(this,
+                R.layout.listview_item_row, notes);
+        listView.setAdapter(searchAdapter);
+    }
+
     @Override
     public void onCreateContextMenu(ContextMenu menu, View v,
                                     ContextMenu.ContextMenuInfo menuInfo) {
@@ -258,7 +431,11 @@ public class MainActivity extends AppCompatActivity {
         if (v.getId() == R.id.listView) {
             ListView listViewLocal = (ListView) v;
             AdapterView.AdapterContextMenuInfo acmi = (AdapterView.AdapterContextMenuInfo) menuInfo;
-            selectedNote = (Note) listViewLocal.getItemAtPosition(acmi.position);
+            selectedNote = (NoteSummary) listViewLocal.getItemAtPosition(acmi.position);
+            if (selectedNote == null) {
+                // Row of page that's still loading
+                return;
+            }
             menu.setHeaderTitle(String.format(v.getContext().getString(R.string.choose_activity), selectedNote.getId()));
             MenuInflater inflater = getMenuInflater();
             inflater.inflate(R.menu.context_menu_note_select, menu);
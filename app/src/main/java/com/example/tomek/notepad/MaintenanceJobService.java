@@ -0,0 +1,85 @@
+package com.example.tomek.notepad;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JobService used to run DatabaseHandler.runMaintenance() while device is idle and charging
+ * Vacuum rewrites large part of database file, so it's kept out of the time user works with notes.
+ */
+public class MaintenanceJobService extends JobService {
+
+    private static final String TAG = "MaintenanceJobService";
+    private static final int JOB_ID = 1;
+    private static final long INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    // Maintenance running on writer thread of DatabaseExecutor, null when none is
+    private Future<Boolean> task;
+
+    /**
+     * Method used to schedule periodic maintenance, does nothing if it's scheduled already
+     * @param context any Context
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, MaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(INTERVAL_MILLIS)
+                .build();
+        scheduler.schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final DatabaseHandler dbHandler = DatabaseHandler.getInstance(this);
+        task = DatabaseExecutor.getInstance().write(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                try {
+                    boolean isDone = dbHandler.runMaintenance();
+                    Log.i(TAG, dbHandler.getStorageStats().toString());
+                    Log.i(TAG, dbHandler.getNoteCache().toString());
+                    Log.i(TAG, BitmapPool.getInstance().toString());
+                    return isDone;
+                } catch (SQLiteException e) {
+                    // Busy database is retried in next window, corrupted one would fail again anyway
+                    Log.e(TAG, "Database maintenance failed", e);
+                    return true;
+                }
+            }
+        }, new DatabaseExecutor.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean isDone) {
+                task = null;
+                jobFinished(params, !isDone);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Running statement can't be interrupted, but result of stopped job is ignored anyway
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.tomek.notepad;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Class used to run DataMigrations scheduled by DatabaseHandler.onUpgrade() in small batches, in background
+ * Every batch saves its checkpoint, migration stopped by app being killed resumes on next start()
+ */
+public class MigrationRunner {
+
+    /**
+     * Interface of migration progress listener, called on main thread
+     */
+    public interface OnMigrationProgressListener {
+        /**
+         * Called after each batch
+         * @param migratedCount count of rows migrated so far
+         * @param totalCount count of rows to migrate
+         */
+        void onMigrationProgress(int migratedCount, int totalCount);
+
+        /**
+         * Called when runner stops
+         * @param isDone true if nothing is left to migrate, false if migration failed and will be resumed later
+         */
+        void onMigrationFinished(boolean isDone);
+    }
+
+    private static final String TAG = "MigrationRunner";
+
+    // Count of rows migrated in single transaction
+    private static final int BATCH_SIZE = 20;
+
+    private static MigrationRunner sInstance;
+
+    private final DatabaseHandler dbHandler;
+    private final NoteRepository repository;
+    private final DatabaseExecutor dbExecutor = DatabaseExecutor.getInstance();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Makes sure only one migration runs at a time, i.e. after activity is recreated
+    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+
+    // Listeners and last reported progress, touched only on main thread
+    private final ArrayList<OnMigrationProgressListener> listeners = new ArrayList<>();
+    private int migratedCount;
+    private int totalCount;
+
+    // Progress of running migration, touched only on writer thread
+    private int batchMigratedCount;
+    private int batchTotalCount;
+
+    private final Runnable batchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            migrateBatch();
+        }
+    };
+
+    private MigrationRunner(Context context) {
+        dbHandler = DatabaseHandler.getInstance(context);
+        repository = NoteRepository.getInstance(context);
+    }
+
+    /**
+     * Method used to get shared MigrationRunner
+     * @param context any Context, only application Context is kept
+     * @return process-wide MigrationRunner
+     */
+    public static synchronized MigrationRunner getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MigrationRunner(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Method used to start migration in background, if it's not running already
+     */
+    public void start() {
+        if (isRunning.compareAndSet(false, true)) {
+            dbExecutor.write(new Runnable() {
+                @Override
+                public void run() {
+                    startMigration();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return true while migration runs
+     */
+    public boolean isRunning() {
+        return isRunning.get();
+    }
+
+    /**
+     * Method used to listen to migration progress, has to be called on main thread
+     * If migration is running, listener gets its current progress right away
+     */
+    public void addListener(OnMigrationProgressListener listener) {
+        listeners.add(listener);
+        if (isRunning() && totalCount > 0) {
+            listener.onMigrationProgress(migratedCount, totalCount);
+        }
+    }
+
+    /**
+     * Method used to stop listening to migration progress, has to be called on main thread
+     */
+    public void removeListener(OnMigrationProgressListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void startMigration() {
+        try {
+            batchTotalCount = dbHandler.getPendingMigrationRowCount();
+            batchMigratedCount = 0;
+            if (batchTotalCount > 0) {
+                postProgress(0, batchTotalCount);
+            }
+            dbExecutor.write(batchRunnable);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Can't count rows to migrate", e);
+            finish(false);
+        }
+    }
+
+    /**
+     * Method used to migrate single batch and queue the next one, writes queued meanwhile run in between
+     */
+    private void migrateBatch() {
+        try {
+            int batchCount = dbHandler.runMigrationBatch(BATCH_SIZE);
+            if (batchCount > 0) {
+                // Notes saved meanwhile may add rows to migrate
+                batchMigratedCount = Math.min(batchMigratedCount + batchCount, batchTotalCount);
+                postProgress(batchMigratedCount, batchTotalCount);
+                dbExecutor.write(batchRunnable);
+                return;
+            }
+            if (batchMigratedCount > 0) {
+                repository.notifyInvalidated();
+            }
+            finish(true);
+        } catch (SQLiteException e) {
+            // Failed batch was rolled back, next start() resumes from last checkpoint
+            Log.e(TAG, "Migration batch failed", e);
+            finish(false);
+        }
+    }
+
+    private void finish(boolean isDone) {
+        isRunning.set(false);
+        postFinished(isDone);
+    }
+
+    private void postProgress(final int migrated, final int total) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                migratedCount = migrated;
+                totalCount = total;
+                for (OnMigrationProgressListener listener : new ArrayList<>(listeners)) {
+                    listener.onMigrationProgress(migrated, total);
+                }
+            }
+        });
+    }
+
+    private void postFinished(final boolean isDone) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                migratedCount = 0;
+                totalCount = 0;
+                for (OnMigrationProgressListener listener : new ArrayList<>(listeners)) {
+                    listener.onMigrationFinished(isDone);
+                }
+            }
+        });
+    }
+}
@@ -3,10 +3,7 @@ package com.example.tomek.notepad;
 import android.graphics.Bitmap;
 import android.text.Spannable;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Locale;
 
 /**
  * Class that represents single Note
@@ -22,17 +19,26 @@ public class Note {
     //
     private String mTitle;
 
-    // Raw text used to make titles
+    // Raw text used to make titles, computed from mSpannable when it's needed
     private String rawText;
 
     //Painting
     private Bitmap mImage;
 
+    // Strokes painting is made of, null if it's raster only. Painting is rasterized from them when it's needed
+    private StrokeDrawing mStrokes;
+
     //Dates (Default value)
     private Date dateUpdated = new Date();
 
-    //Formatter
-    private static final DateFormat dt = new SimpleDateFormat("dd.MM.yyyy, hh:mm:ss", Locale.getDefault());
+    // KEY_VERSION of notes row Note was read from, -1 for Notes that weren't loaded from Database
+    private long mVersion = -1;
+
+    // Fields changed since Note was loaded, updateNote() writes only these
+    // Notes that weren't loaded from Database have all fields changed
+    private boolean mTitleChanged = true;
+    private boolean mSpannableChanged = true;
+    private boolean mImageChanged = true;
 
     public Note() {
 
@@ -43,8 +49,10 @@ public class Note {
         this.mTitle = title;
         this.mSpannable = spannable;
         this.mImage = image;
-        this.rawText = mSpannable.toString(); //TODO Remove this field and make this value accessible through utility method
         this.dateUpdated = dateUpdated;
+        this.mTitleChanged = false;
+        this.mSpannableChanged = false;
+        this.mImageChanged = false;
     }
 
     public int getId() {
@@ -60,19 +68,49 @@ public class Note {
     }
 
     public String getRawText() {
+        if (rawText == null && mSpannable != null) {
+            rawText = mSpannable.toString();
+        }
         return rawText;
     }
 
     public Bitmap getImage() {
+        if (mImage == null && mStrokes != null && !mStrokes.isEmpty()) {
+            mImage = mStrokes.rasterize();
+        }
         return mImage;
     }
 
+    public StrokeDrawing getStrokes() {
+        return mStrokes;
+    }
+
     public Date getDateUpdated() {
         return dateUpdated;
     }
 
-    public String getFormattedDateUpdatted() {
-        return dt.format(dateUpdated);
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public boolean isTitleChanged() {
+        return mTitleChanged;
+    }
+
+    public boolean isSpannableChanged() {
+        return mSpannableChanged;
+    }
+
+    public boolean isImageChanged() {
+        return mImageChanged;
+    }
+
+    /**
+     * Method used to check if Note has to be written at all
+     * @return true if any field changed since Note was loaded
+     */
+    public boolean hasChanges() {
+        return mTitleChanged || mSpannableChanged || mImageChanged;
     }
 
     public void setId(int id) {
@@ -81,6 +119,7 @@ public class Note {
 
     public void setSpannable(Spannable spannable) {
         this.mSpannable = spannable;
+        this.rawText = null;
     }
 
     public void setTitle(String title) {
@@ -91,11 +130,39 @@ public class Note {
         this.rawText = rawText;
     }
 
+    /**
+     * Method used to set raster painting, strokes it was made of are forgotten
+     */
     public void setImage(Bitmap image) {
         this.mImage = image;
+        this.mStrokes = null;
+    }
+
+    /**
+     * Method used to set painting made of strokes, it's rasterized by getImage() when it's needed
+     */
+    public void setStrokes(StrokeDrawing strokes) {
+        this.mStrokes = strokes;
+        this.mImage = null;
     }
 
     public void setDateUpdated(Date dateUpdated) {
         this.dateUpdated = dateUpdated;
     }
+
+    public void setVersion(long version) {
+        this.mVersion = version;
+    }
+
+    public void setTitleChanged(boolean titleChanged) {
+        this.mTitleChanged = titleChanged;
+    }
+
+    public void setSpannableChanged(boolean spannableChanged) {
+        this.mSpannableChanged = spannableChanged;
+    }
+
+    public void setImageChanged(boolean imageChanged) {
+        this.mImageChanged = imageChanged;
+    }
 }
@@ -4,7 +4,6 @@ import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.database.sqlite.SQLiteException;
 import android.graphics.Color;
 import android.graphics.Point;
 import android.graphics.Typeface;
@@ -13,14 +12,17 @@ import android.speech.RecognizerIntent;
 import android.support.annotation.Nullable;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.text.Editable;
 import android.text.InputType;
 import android.text.Spannable;
 import android.text.Spanned;
 import android.text.SpannedString;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.StyleSpan;
 import android.text.style.UnderlineSpan;
+import android.util.Log;
 import android.view.ActionMode;
 import android.view.Display;
 import android.view.Menu;
@@ -32,9 +34,10 @@ import android.view.WindowManager;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.EditText;
 import android.widget.LinearLayout;
+import android.widget.Toast;
 
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.concurrent.Future;
 
 /**
  * Note Activity class that handles:
@@ -57,6 +60,8 @@ public class NoteActivity extends AppCompatActivity {
     //TODO Toggle panels icons color
     //TODO Disable text/draw panel when back button is clicked. Prevents user from saving note when tries to close panel with back button
 
+    private static final String TAG = "NoteActivity";
+
     // Draw mode booleans
     private boolean isDrawModeOn;
     private boolean isTextModeOn;
@@ -73,9 +78,6 @@ public class NoteActivity extends AppCompatActivity {
     // Request code for voice input
     private static final int REQUEST_CODE = 1234;
 
-    // Database Handler
-    private DatabaseHandler dbHandler;
-
     // Percent of total layout height that is prepared for format text panel
     // Default 0.3, Values  0 < x < 1
     private static final double MENU_MARGIN_RELATIVE_MODIFIER = 0.3;
@@ -98,6 +100,12 @@ public class NoteActivity extends AppCompatActivity {
     // Converted to HTML String in database
     private Spannable spannable;
 
+    // Journal that records edits as they're made, so they survive killed process
+    private NoteJournal journal;
+
+    // Load of note running in background, null when it's done
+    private Future<Note> noteLoad;
+
     // Alert dialog for back button and save button
     private AlertDialog alertDialogSaveNote;
 
@@ -124,9 +132,6 @@ public class NoteActivity extends AppCompatActivity {
         ViewGroup.LayoutParams paramsDrawPanel = mDrawLayout.getLayoutParams();
         paramsDrawPanel.height = calculateMenuMargin();
 
-        // Create DatabaseHandler
-        dbHandler = new DatabaseHandler(getApplicationContext());
-
         // Get default spannable value
         spannable = editText.getText();
 
@@ -136,6 +141,7 @@ public class NoteActivity extends AppCompatActivity {
         // get ID data from intent
         Intent intent = getIntent();
         noteID = Integer.parseInt(intent.getStringExtra("id"));
+        journal = new NoteJournal(this, noteID);
 
         // disable soft keyboard when editText is focused
         disableSoftInputFromAppearing(editText);
@@ -147,9 +153,11 @@ public class NoteActivity extends AppCompatActivity {
         // Auto-enable soft keyboard when activity starts
         //toggleKeyboard(null);
 
-        // Load note
+        // Load note, edits are recorded once it's shown
         if (noteID != -1) {
             loadNote(noteID);
+        } else {
+            startRecordingEdits();
         }
 
         // Handling drawingView's onTouchListener via EditText onTouchListener
@@ -376,43 +384,86 @@ public class NoteActivity extends AppCompatActivity {
         int posStart = editTextLocal.getSelectionStart();
         int posEnd = editTextLocal.getSelectionEnd();
 
+        Object span = null;
         if (view.getTag().toString().equals("bold")) {
-            spannable.setSpan(new StyleSpan(Typeface.BOLD), posStart, posEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            span = new StyleSpan(Typeface.BOLD);
         } else if (view.getTag().toString().equals("italic")) {
-            spannable.setSpan(new StyleSpan(Typeface.ITALIC), posStart, posEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            span = new StyleSpan(Typeface.ITALIC);
         } else if (view.getTag().toString().equals("underline")) {
-            spannable.setSpan(new UnderlineSpan(), posStart, posEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            span = new UnderlineSpan();
         } else if (view.getTag().toString().equals("textBlack")) {
-            spannable.setSpan(new ForegroundColorSpan(Color.BLACK), posStart, posEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            span = new ForegroundColorSpan(Color.BLACK);
         } else if (view.getTag().toString().equals("textRed")) {
-            spannable.setSpan(new ForegroundColorSpan(Color.RED), posStart, posEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            span = new ForegroundColorSpan(Color.RED);
         } else if (view.getTag().toString().equals("textBlue")) {
-            spannable.setSpan(new ForegroundColorSpan(Color.BLUE), posStart, posEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            span = new ForegroundColorSpan(Color.BLUE);
         } else if (view.getTag().toString().equals("textGreen")) {
-            spannable.setSpan(new ForegroundColorSpan(Color.GREEN), posStart, posEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            span = new ForegroundColorSpan(Color.GREEN);
         } else if (view.getTag().toString().equals("textYellow")) {
-            spannable.setSpan(new ForegroundColorSpan(Color.YELLOW), posStart, posEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            span = new ForegroundColorSpan(Color.YELLOW);
+        }
+        if (span != null) {
+            // EditText redraws itself when its spans change, setting the text again would journal all of it
+            spannable.setSpan(span, posStart, posEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            journal.setSpan(span, posStart, posEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
         }
-        editTextLocal.setText(spannable);
     }
 
     /**
      * Method used to add note text to EditText
+     * Note is loaded in background, editing is disabled until it's shown
      *
      * @param noteID ID number of the Note entry in the SQLite database
      */
-    private void loadNote(int noteID) {
-
-        try {
-            Note n = dbHandler.getNote(noteID);
-            //todo fix
-            editText.setText(n.getSpannable());
-            editText.setSelection(editText.getText().toString().length());
-            noteTitle.setText(n.getTitle());
-            drawingView.setBitmap(n.getImage());
-        }catch (SQLiteException e){
-            e.printStackTrace();
-        }
+    private void loadNote(final int noteID) {
+        setEditingEnabled(false);
+        noteLoad = NoteJournal.load(this, noteID, new DatabaseExecutor.Callback<Note>() {
+            @Override
+            public void onResult(Note n) {
+                noteLoad = null;
+                editText.setText(n.getSpannable());
+                editText.setSelection(editText.getText().toString().length());
+                noteTitle.setText(n.getTitle());
+                if (n.getStrokes() != null) {
+                    drawingView.setStrokes(n.getStrokes());
+                } else {
+                    drawingView.setBitmap(n.getImage());
+                }
+                setEditingEnabled(true);
+                startRecordingEdits();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                // Note was deleted meanwhile or can't be decoded, don't let user overwrite it with empty one
+                noteLoad = null;
+                Log.e(TAG, "Can't load note " + noteID, e);
+                Toast.makeText(NoteActivity.this, getString(R.string.note_not_found), Toast.LENGTH_SHORT).show();
+                finish();
+            }
+        });
+    }
+
+    /**
+     * Method used to record edits in journal, called after note is shown so loading it isn't recorded
+     */
+    private void startRecordingEdits() {
+        noteTitle.addTextChangedListener(new ChangeWatcher() {
+            @Override
+            public void afterTextChanged(Editable s) {
+                journal.setTitle(s.toString());
+            }
+        });
+        editText.addTextChangedListener(new TextJournalWatcher());
+        drawingView.setOnStrokeListener(journal);
+    }
+
+    /**
+     * Method used to block typing and drawing, disabled EditText doesn't pass touches to drawingView either
+     */
+    private void setEditingEnabled(boolean isEnabled) {
+        noteTitle.setEnabled(isEnabled);
+        editText.setEnabled(isEnabled);
     }
 
     /**
@@ -421,24 +472,40 @@ public class NoteActivity extends AppCompatActivity {
      */
     public void saveOrUpdateNote(@Nullable MenuItem menu) {
 
-        spannable = editText.getText();
-        String title = noteTitle.getText().toString();
+        // Edits are in journal already, only writing them to notes row is left, it runs in background
+        if (journal.hasChanges()) {
+            journal.commit();
+            if (noteID == -1) {
+                Toast.makeText(this, getString(R.string.toast_note_created), Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(this, getString(R.string.toast_note_updated), Toast.LENGTH_SHORT).show();
+            }
+        }
 
-        Note note = new Note();
+        hideSoftKeyboard();
+        finish();
+    }
 
-        note.setTitle(title);
-        note.setSpannable(spannable);
-        note.setImage(drawingView.getCanvasBitmap());
-        note.setDateUpdated(new Date());
+    @Override
+    protected void onPause() {
+        // Process can be killed any time after this
+        journal.flush();
+        super.onPause();
+    }
 
-        if (noteID != -1) {
-            note.setId(noteID);
+    @Override
+    protected void onDestroy() {
+        if (noteLoad != null) {
+            noteLoad.cancel(false);
+            noteLoad = null;
         }
+        super.onDestroy();
+    }
 
-        new SaveOrUpdateNoteTask(this).execute(note);
-
-        hideSoftKeyboard();
-        finish();
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        BitmapPool.getInstance().trimMemory(level);
     }
 
     /**
@@ -525,4 +592,55 @@ public class NoteActivity extends AppCompatActivity {
     public void wipeCanvas(View v) {
         drawingView.startNew();
     }
+
+    /**
+     * TextWatcher that records edits of note text in journal
+     * Text replaced at once, i.e. by setText(), is recorded with its spans, other edits as plain text
+     */
+    private class TextJournalWatcher implements TextWatcher {
+
+        private boolean isWholeTextReplaced;
+        private int replacedStart;
+        private int replacedLength;
+        private int insertedLength;
+
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            // Typing into empty text or deleting all of it is plain edit, only replacing all text with new one isn't
+            isWholeTextReplaced = count == s.length() && count > 0 && after > 0;
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            replacedStart = start;
+            replacedLength = before;
+            insertedLength = count;
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+            if (isWholeTextReplaced) {
+                journal.setText(s);
+            } else {
+                journal.replaceText(replacedStart, replacedLength,
+                        s.subSequence(replacedStart, replacedStart + insertedLength).toString());
+            }
+        }
+    }
+
+    /**
+     * TextWatcher that reacts only to finished changes
+     */
+    private abstract static class ChangeWatcher implements TextWatcher {
+
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            // Nothing happens here...
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            // Nothing happens here...
+        }
+    }
 }
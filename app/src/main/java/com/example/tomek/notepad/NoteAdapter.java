@@ -3,6 +3,7 @@ package com.example.tomek.notepad;
 import android.app.Activity;
 import android.content.Context;
 import android.support.annotation.NonNull;
+import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -11,13 +12,13 @@ import android.widget.TextView;
 
 import java.util.List;
 
-public class NoteAdapter extends ArrayAdapter<Note> {
+public class NoteAdapter extends ArrayAdapter<NoteSummary> {
 
     private Context context;
     private int layoutResourceId;
-    private List<Note> data = null;
+    private List<NoteSummary> data = null;
 
-    public NoteAdapter(Context context, int layoutResourceId, List<Note> data) {
+    public NoteAdapter(Context context, int layoutResourceId, List<NoteSummary> data) {
         super(context, layoutResourceId, data);
         this.layoutResourceId = layoutResourceId;
         this.context = context;
@@ -27,6 +28,17 @@ public class NoteAdapter extends ArrayAdapter<Note> {
     @Override
     @NonNull
     public View getView(int position, View convertView, @NonNull ViewGroup parent) {
+        return getNoteView(context, layoutResourceId, data.get(position), convertView, parent);
+    }
+
+    /**
+     * Method used to inflate or recycle single row of notes list and fill it with NoteSummary
+     * Shared with PagedNoteAdapter
+     *
+     * @param note NoteSummary to show, null while it's not loaded yet
+     */
+    static View getNoteView(Context context, int layoutResourceId, NoteSummary note,
+                            View convertView, ViewGroup parent) {
         View row = convertView;
         NoteHolder holder;
 
@@ -48,31 +60,40 @@ public class NoteAdapter extends ArrayAdapter<Note> {
             holder = (NoteHolder)row.getTag();
         }
 
-        Note note = data.get(position);
+        if (note == null) {
+            holder.noteTitle.setText("");
+            holder.noteContent.setText("");
+            holder.noteDate.setText("");
+            return row;
+        }
+
         String noteTitle = note.getTitle();
         if (noteTitle == null || noteTitle.length() == 0)
             noteTitle = String.format(context.getString(R.string.note_number), note.getId());
         holder.noteTitle.setText(noteTitle);
 
-        String title = note.getRawText();
-        if (title.length() != 0) {
-            holder.noteContent.setText(note.getRawText());
+        CharSequence preview = note.getPreview();
+        if (preview.length() != 0) {
+            holder.noteContent.setText(preview);
         }
         else {
             //TODO Finding out if there is picture on note
-            holder.noteContent.setText("INFO: Note has no text");
+            holder.noteContent.setText(context.getString(R.string.note_has_no_text));
         }
 
-        holder.noteDate.setText(context.getString(R.string.last_updated) + ": " + note.getFormattedDateUpdatted());
+        // Dates are stored as epoch millis, they are formatted only for display
+        String dateUpdated = DateUtils.formatDateTime(context, note.getDateUpdated().getTime(),
+                DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_YEAR | DateUtils.FORMAT_SHOW_TIME);
+        holder.noteDate.setText(context.getString(R.string.last_updated) + ": " + dateUpdated);
 
         return row;
     }
 
-    public void setData(List<Note> data) {
+    public void setData(List<NoteSummary> data) {
         this.data = data;
     }
 
-    public List<Note> getData() {
+    public List<NoteSummary> getData() {
         return data;
     }
 
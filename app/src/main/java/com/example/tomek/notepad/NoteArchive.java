@@ -0,0 +1,333 @@
+package com.example.tomek.notepad;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Class used to export all notes to zip archive and import them back
+ *
+ * Archive entries, in order:
+ * drawings/[note id]/[hash]  drawing file, named by SHA-256 of its content like in DrawingStore
+ * notes/[checksum]           note Record, named by SHA-256 of its bytes, follows its drawing
+ * manifest                   MANIFEST_HEADER line, then names of all entries above
+ *
+ * Notes are streamed one at a time, so memory use doesn't depend on count of notes.
+ * Imported notes are written in batches, each batch remembers checksums of its notes in database.
+ * Importing the same archive again after failure skips notes imported before,
+ * checksums are forgotten once import of complete archive succeeds.
+ */
+public class NoteArchive {
+
+    static final String ENTRY_MANIFEST = "manifest";
+    static final String DIRECTORY_NOTES = "notes/";
+    static final String DIRECTORY_DRAWINGS = "drawings/";
+    private static final String MANIFEST_HEADER = "notepad-archive 1";
+
+    // Count of notes read or written in single transaction
+    private static final int BATCH_SIZE = 50;
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final DatabaseHandler dbHandler;
+    private final NoteRepository repository;
+    private final DrawingStore drawingStore;
+    private final File cacheDir;
+
+    public NoteArchive(Context context) {
+        dbHandler = DatabaseHandler.getInstance(context);
+        repository = NoteRepository.getInstance(context);
+        drawingStore = new DrawingStore(context);
+        cacheDir = context.getCacheDir();
+    }
+
+    /**
+     * Method used to write all notes to archive, should be called in background
+     * @param output stream to write archive to, it's closed afterwards
+     * @return count of exported notes
+     */
+    public int exportNotes(OutputStream output) throws IOException {
+        // Drawings of notes from old versions have to be moved to DrawingStore first
+        while (dbHandler.runMigrationBatch(BATCH_SIZE) > 0) {
+            // Keep migrating until nothing is left
+        }
+
+        // Entry names are collected in file, manifest is the last entry
+        File manifestFile = File.createTempFile(ENTRY_MANIFEST, null, cacheDir);
+        int count = 0;
+        try {
+            ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(output));
+            Writer manifest = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(manifestFile), UTF_8));
+            try {
+                manifest.write(MANIFEST_HEADER + "\n");
+
+                int lastId = 0;
+                ArrayList<Record> records;
+                while (!(records = dbHandler.getArchiveRecords(lastId, BATCH_SIZE)).isEmpty()) {
+                    for (Record record : records) {
+                        if (record.imageHash != null) {
+                            File drawingFile = drawingStore.getFile(record.imageHash);
+                            if (drawingFile.exists()) {
+                                String name = DIRECTORY_DRAWINGS + record.id + "/" + record.imageHash;
+                                writeEntry(zip, name, new FileInputStream(drawingFile));
+                                manifest.write(name + "\n");
+                            } else {
+                                // Drawing is lost already, keep the text at least
+                                record.imageHash = null;
+                            }
+                        }
+
+                        byte[] bytes = record.toBytes();
+                        String name = DIRECTORY_NOTES + DrawingStore.toHex(DrawingStore.createDigest().digest(bytes));
+                        writeEntry(zip, name, new ByteArrayInputStream(bytes));
+                        manifest.write(name + "\n");
+
+                        lastId = record.id;
+                        count++;
+                    }
+                }
+
+                manifest.close();
+                writeEntry(zip, ENTRY_MANIFEST, new FileInputStream(manifestFile));
+            } finally {
+                manifest.close();
+                zip.close();
+            }
+        } finally {
+            manifestFile.delete();
+        }
+        return count;
+    }
+
+    /**
+     * Method used to add notes from archive to existing ones, should be called in background
+     * Notes imported before import failed are skipped, so failed import can be repeated
+     * @param input stream of archive written by exportNotes(), it's closed afterwards
+     * @return count of notes imported by this call
+     * @throws IOException if archive can't be read or is incomplete, notes read so far stay imported
+     */
+    public int importNotes(InputStream input) throws IOException {
+        ZipInputStream zip = new ZipInputStream(new BufferedInputStream(input));
+        ArrayList<Record> batch = new ArrayList<>(BATCH_SIZE);
+        ArrayList<String> storedHashes = new ArrayList<>();
+        int importedCount = 0;
+        boolean hasManifest = false;
+        try {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (name.startsWith(DIRECTORY_DRAWINGS)) {
+                    importDrawing(zip, getEntryChecksum(name), storedHashes);
+                } else if (name.startsWith(DIRECTORY_NOTES)) {
+                    String checksum = getEntryChecksum(name);
+                    if (dbHandler.isArchiveRecordImported(checksum)) {
+                        continue;
+                    }
+                    byte[] bytes = readEntry(zip);
+                    if (!checksum.equals(DrawingStore.toHex(DrawingStore.createDigest().digest(bytes)))) {
+                        throw new IOException("Note " + name + " is corrupted");
+                    }
+                    Record record = Record.fromBytes(bytes);
+                    record.checksum = checksum;
+                    batch.add(record);
+                    if (batch.size() == BATCH_SIZE) {
+                        importedCount += importBatch(batch);
+                    }
+                } else if (name.equals(ENTRY_MANIFEST)) {
+                    importedCount += importBatch(batch);
+                    verifyManifest(zip);
+                    hasManifest = true;
+                }
+                // Other entries are skipped, they can be added by newer versions
+            }
+            importedCount += importBatch(batch);
+        } finally {
+            zip.close();
+            // Drawings whose notes weren't inserted, i.e. because batch failed, would never be deleted
+            dbHandler.releaseDrawings(storedHashes);
+            if (importedCount > 0) {
+                repository.notifyInvalidated();
+            }
+        }
+
+        if (!hasManifest) {
+            throw new IOException("Archive is incomplete");
+        }
+        dbHandler.clearArchiveImports();
+        return importedCount;
+    }
+
+    private int importBatch(ArrayList<Record> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        try {
+            int count = dbHandler.importArchiveRecords(batch);
+            batch.clear();
+            return count;
+        } catch (SQLiteException e) {
+            throw new IOException("Can't import notes", e);
+        }
+    }
+
+    /**
+     * Method used to store drawing of archive, unless the same one is stored already
+     * @param storedHashes hashes of drawings stored by this import, hash of stored drawing is added to them
+     */
+    private void importDrawing(InputStream entry, String hash, ArrayList<String> storedHashes) throws IOException {
+        if (drawingStore.getFile(hash).exists()) {
+            // Same drawing is stored already, i.e. by previous import
+            return;
+        }
+        storedHashes.add(drawingStore.put(entry, hash));
+    }
+
+    /**
+     * Method used to check that every entry listed in manifest was imported
+     */
+    private void verifyManifest(InputStream entry) throws IOException {
+        // Reader isn't closed, it would close the archive
+        BufferedReader reader = new BufferedReader(new InputStreamReader(entry, UTF_8));
+        if (!MANIFEST_HEADER.equals(reader.readLine())) {
+            throw new IOException("Unsupported archive");
+        }
+        String name;
+        while ((name = reader.readLine()) != null) {
+            boolean isImported;
+            if (name.startsWith(DIRECTORY_NOTES)) {
+                isImported = dbHandler.isArchiveRecordImported(getEntryChecksum(name));
+            } else if (name.startsWith(DIRECTORY_DRAWINGS)) {
+                isImported = drawingStore.getFile(getEntryChecksum(name)).exists();
+            } else {
+                isImported = name.isEmpty();
+            }
+            if (!isImported) {
+                throw new IOException("Archive is missing " + name);
+            }
+        }
+    }
+
+    private static String getEntryChecksum(String name) throws IOException {
+        String checksum = name.substring(name.lastIndexOf('/') + 1);
+        if (checksum.isEmpty()) {
+            throw new IOException("Malformed entry " + name);
+        }
+        return checksum;
+    }
+
+    private static void writeEntry(ZipOutputStream zip, String name, InputStream content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = content.read(buffer)) != -1) {
+                zip.write(buffer, 0, count);
+            }
+        } finally {
+            content.close();
+        }
+        zip.closeEntry();
+    }
+
+    private static byte[] readEntry(InputStream entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int count;
+        while ((count = entry.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Note as it's kept in archive, text is encoded by SpanCodec and drawing is referenced by its hash
+     */
+    static class Record {
+
+        private static final byte RECORD_VERSION = 1;
+
+        final int id;
+        final String title;
+        final long dateUpdated;
+        final byte[] encodedSpannable;
+        String imageHash;
+
+        // Checksum of imported record, null for exported ones
+        String checksum;
+
+        Record(int id, String title, long dateUpdated, byte[] encodedSpannable, String imageHash) {
+            this.id = id;
+            this.title = title;
+            this.dateUpdated = dateUpdated;
+            this.encodedSpannable = encodedSpannable;
+            this.imageHash = imageHash;
+        }
+
+        byte[] toBytes() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(encodedSpannable.length + 128);
+            DataOutputStream stream = new DataOutputStream(bytes);
+            stream.writeByte(RECORD_VERSION);
+            stream.writeInt(id);
+            writeNullableString(stream, title);
+            stream.writeLong(dateUpdated);
+            writeNullableString(stream, imageHash);
+            stream.writeInt(encodedSpannable.length);
+            stream.write(encodedSpannable);
+            stream.flush();
+            return bytes.toByteArray();
+        }
+
+        static Record fromBytes(byte[] bytes) throws IOException {
+            DataInputStream stream = new DataInputStream(new ByteArrayInputStream(bytes));
+            byte version = stream.readByte();
+            if (version != RECORD_VERSION) {
+                throw new IOException("Unsupported note version " + version);
+            }
+            int id = stream.readInt();
+            String title = readNullableString(stream);
+            long dateUpdated = stream.readLong();
+            String imageHash = readNullableString(stream);
+            int length = stream.readInt();
+            if (length < 0 || length > stream.available()) {
+                throw new IOException("Malformed note");
+            }
+            byte[] encodedSpannable = new byte[length];
+            stream.readFully(encodedSpannable);
+            return new Record(id, title, dateUpdated, encodedSpannable, imageHash);
+        }
+
+        private static void writeNullableString(DataOutputStream stream, String value) throws IOException {
+            stream.writeBoolean(value != null);
+            if (value != null) {
+                stream.writeUTF(value);
+            }
+        }
+
+        private static String readNullableString(DataInputStream stream) throws IOException {
+            return stream.readBoolean() ? stream.readUTF() : null;
+        }
+    }
+}
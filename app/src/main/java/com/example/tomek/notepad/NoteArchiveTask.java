@@ -0,0 +1,84 @@
+package com.example.tomek.notepad;
+
+import android.content.Context;
+import android.net.Uri;
+import android.widget.Toast;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Task used to export notes to document chosen by user or import them from it
+ * Export only reads notes, so it runs on reader thread of DatabaseExecutor, import runs on its writer thread
+ */
+public class NoteArchiveTask extends DatabaseExecutor.Callback<Integer> implements Callable<Integer> {
+
+    private final Context mContext;
+    private final NoteArchive mArchive;
+    private final boolean mIsExport;
+    private final Uri mUri;
+
+    /**
+     * @param context Context used to open document and show result
+     * @param isExport true to export notes, false to import them
+     * @param uri document chosen by user
+     */
+    public NoteArchiveTask(Context context, boolean isExport, Uri uri) {
+        mContext = context.getApplicationContext();
+        mArchive = new NoteArchive(context);
+        mIsExport = isExport;
+        mUri = uri;
+    }
+
+    /**
+     * Method used to run the task in background, result is shown as Toast
+     * @return Future of count of exported or imported notes
+     */
+    public Future<Integer> execute() {
+        DatabaseExecutor dbExecutor = DatabaseExecutor.getInstance();
+        return mIsExport ? dbExecutor.read(this, this) : dbExecutor.write(this, this);
+    }
+
+    @Override
+    public Integer call() {
+        try {
+            if (mIsExport) {
+                OutputStream output = mContext.getContentResolver().openOutputStream(mUri);
+                if (output == null) {
+                    return null;
+                }
+                return mArchive.exportNotes(output);
+            } else {
+                InputStream input = mContext.getContentResolver().openInputStream(mUri);
+                if (input == null) {
+                    return null;
+                }
+                return mArchive.importNotes(input);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public void onResult(Integer count) {
+        String message;
+        if (count == null) {
+            message = mContext.getString(mIsExport ? R.string.export_notes_failure : R.string.import_notes_failure);
+        } else {
+            message = mContext.getString(mIsExport ? R.string.export_notes_success : R.string.import_notes_success, count);
+        }
+        Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
+    }
+
+    @Override
+    public void onError(Exception e) {
+        // Database failed, i.e. disk is full, report it like unreadable document
+        super.onError(e);
+        onResult(null);
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.tomek.notepad;
+
+import android.graphics.Bitmap;
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.util.LruCache;
+
+import java.util.Date;
+
+/**
+ * Memory-bounded cache of decoded notes, used by DatabaseHandler.getNote()
+ * Entries are sized by bytes of their text and drawing, least recently used ones are evicted first.
+ * Every entry remembers version of notes row it was decoded from, entry of row changed since is a miss.
+ * Cached text and drawing are never given out, callers get copy of text and strokes or immutable drawing.
+ * Drawing made of strokes is cached as its strokes, it's rasterized only by caller that needs it.
+ */
+public class NoteCache {
+
+    // Part of heap the cache can use
+    private static final int HEAP_DIVISOR = 8;
+    // Bytes counted for each entry besides its text and drawing
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private final LruCache<Integer, Entry> entries;
+
+    // Metrics, guarded by this
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @param maxBytes max count of bytes used by cached notes
+     */
+    NoteCache(int maxBytes) {
+        entries = new LruCache<Integer, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(Integer noteId, Entry entry) {
+                return entry.mBytes;
+            }
+        };
+    }
+
+    /**
+     * Method used to create cache sized by heap available to the app
+     */
+    static NoteCache create() {
+        return new NoteCache((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / HEAP_DIVISOR));
+    }
+
+    /**
+     * Method used to get cached note
+     * @param noteId KEY_ID of note
+     * @param version current version of notes row
+     * @return new Note with fields not marked as changed, null if note isn't cached in given version
+     */
+    synchronized Note get(int noteId, long version) {
+        Entry entry = entries.get(noteId);
+        if (entry == null || entry.mVersion != version) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        Note note = new Note(noteId, entry.mTitle, new SpannableString(entry.mSpannable), entry.mImage,
+                new Date(entry.mDateUpdated));
+        note.setVersion(version);
+        if (entry.mStrokes != null) {
+            note.setStrokes(new StrokeDrawing(entry.mStrokes));
+        }
+        return note;
+    }
+
+    /**
+     * Method used to cache note decoded from notes row
+     * @param version version of notes row note was read from
+     * @param note whole note, it's copied
+     */
+    synchronized void put(long version, Note note) {
+        entries.put(note.getId(), new Entry(version, note.getTitle(), note.getSpannable(), note.getStrokes(),
+                note.getStrokes() == null ? note.getImage() : null, note.getDateUpdated().getTime()));
+    }
+
+    /**
+     * Method used to cache note written by DatabaseHandler.updateNote()
+     * Fields that weren't written are taken from entry of previous version, note isn't cached without it
+     * @param oldVersion version of notes row before update
+     * @param newVersion version of notes row after update
+     * @param note updated note, fields written are marked as changed
+     * @param dateUpdated date written to notes row
+     */
+    synchronized void update(long oldVersion, long newVersion, Note note, long dateUpdated) {
+        boolean isTextWritten = note.isTitleChanged() || note.isSpannableChanged();
+        Entry entry = entries.get(note.getId());
+        if (entry == null || entry.mVersion != oldVersion) {
+            if (!isTextWritten || !note.isImageChanged()) {
+                entries.remove(note.getId());
+                return;
+            }
+            entry = null;
+        }
+        String title = isTextWritten ? note.getTitle() : entry.mTitle;
+        Spannable spannable = isTextWritten ? note.getSpannable() : entry.mSpannable;
+        StrokeDrawing strokes = note.isImageChanged() ? note.getStrokes() : entry.mStrokes;
+        Bitmap image = null;
+        if (strokes == null) {
+            image = note.isImageChanged() ? note.getImage() : entry.mImage;
+        }
+        entries.put(note.getId(), new Entry(newVersion, title, spannable, strokes, image, dateUpdated));
+    }
+
+    /**
+     * Method used to drop cached note, i.e. after it was deleted
+     */
+    synchronized void remove(int noteId) {
+        entries.remove(noteId);
+    }
+
+    synchronized void clear() {
+        entries.evictAll();
+    }
+
+    /**
+     * @return count of get() calls that returned cached note
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return count of get() calls that found no note or note of older version
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return count of bytes used by cached notes
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return entries.maxSize();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "NoteCache{hits=" + hitCount + ", misses=" + missCount + ", bytes=" + entries.size()
+                + "/" + entries.maxSize() + "}";
+    }
+
+    /**
+     * Cached note, all fields are immutable
+     */
+    private static class Entry {
+
+        private final long mVersion;
+        private final String mTitle;
+        private final Spannable mSpannable;
+        private final StrokeDrawing mStrokes;
+        private final Bitmap mImage;
+        private final long mDateUpdated;
+        private final int mBytes;
+
+        /**
+         * @param strokes strokes of drawing, they're copied. Null if drawing is raster only
+         * @param image raster drawing, used only if there are no strokes
+         */
+        Entry(long version, String title, Spannable spannable, StrokeDrawing strokes, Bitmap image, long dateUpdated) {
+            mVersion = version;
+            mTitle = title;
+            mSpannable = new SpannableString(spannable != null ? spannable : "");
+            mStrokes = strokes != null ? new StrokeDrawing(strokes) : null;
+            mImage = mStrokes == null ? getImmutableImage(image) : null;
+            mDateUpdated = dateUpdated;
+            mBytes = ENTRY_OVERHEAD_BYTES + 2 * mSpannable.length() + (title != null ? 2 * title.length() : 0)
+                    + (mImage != null ? mImage.getAllocationByteCount() : 0) + getStrokesBytes(mStrokes);
+        }
+
+        private static int getStrokesBytes(StrokeDrawing strokes) {
+            if (strokes == null) {
+                return 0;
+            }
+            int bytes = 0;
+            for (DrawingView.Stroke stroke : strokes.getStrokes()) {
+                bytes += ENTRY_OVERHEAD_BYTES + 4 * stroke.points.length;
+            }
+            return bytes;
+        }
+
+        private static Bitmap getImmutableImage(Bitmap image) {
+            if (image == null || !image.isMutable()) {
+                return image;
+            }
+            return image.copy(image.getConfig() != null ? image.getConfig() : Bitmap.Config.ARGB_8888, false);
+        }
+    }
+}
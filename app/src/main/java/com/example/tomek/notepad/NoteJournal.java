@@ -0,0 +1,637 @@
+package com.example.tomek.notepad;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteException;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.SpannableString;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StyleSpan;
+import android.text.style.UnderlineSpan;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of edits made to single note in NoteActivity
+ *
+ * Edits are recorded as small operations on main thread and appended to journal file
+ * by background thread shortly after, so killed process loses at most last FLUSH_DELAY_MILLIS of work.
+ * Journal is compacted into notes row when it grows big and when editing is finished,
+ * notes left with journal by killed process are compacted by compactAll().
+ *
+ * File format: records of int length, operation byte followed by its data, int CRC32 of operation.
+ * First operation is OP_BASE with version of notes row the journal applies to.
+ * Journal with other base is stale, it was compacted already or note was changed elsewhere, it's dropped then.
+ */
+public class NoteJournal implements DrawingView.OnStrokeListener {
+
+    private static final String TAG = "NoteJournal";
+    private static final String DIRECTORY_NAME = "journals";
+
+    private static final long FLUSH_DELAY_MILLIS = 1000;
+    // Size of journal file that makes it compacted while note is still edited
+    private static final long COMPACT_SIZE = 64 * 1024;
+
+    private static final byte OP_BASE = 1;
+    private static final byte OP_REPLACE_TEXT = 2;
+    private static final byte OP_SET_TEXT = 3;
+    private static final byte OP_SET_SPAN = 4;
+    private static final byte OP_SET_TITLE = 5;
+    private static final byte OP_STROKE = 6;
+    private static final byte OP_CLEAR_DRAWING = 7;
+
+    private static final byte SPAN_STYLE = 1;
+    private static final byte SPAN_UNDERLINE = 2;
+    private static final byte SPAN_FOREGROUND_COLOR = 3;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final NoteRepository repository;
+    // Appends and compactions of all journals run in order on its writer thread, loads wait for them
+    private final DatabaseExecutor dbExecutor = DatabaseExecutor.getInstance();
+    private final File directory;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // KEY_ID of note, -1 until new note is created by first append. Written only on writer thread
+    private volatile int noteId;
+
+    // Operations recorded since last flush, touched only on main thread
+    private final ByteArrayOutputStream pendingOperations = new ByteArrayOutputStream();
+    private String pendingTitle;
+    private boolean hasChanges;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param context any Context
+     * @param noteId KEY_ID of edited note, -1 for new note
+     */
+    public NoteJournal(Context context, int noteId) {
+        this.repository = NoteRepository.getInstance(context);
+        this.directory = getDirectory(context);
+        this.noteId = noteId;
+    }
+
+    /**
+     * Method used to load note with edits from its journal applied, in background
+     * Load runs on reader thread after journal work queued before it, so it sees edits flushed by previous NoteActivity
+     * @param context any Context
+     * @param noteId KEY_ID of note to load
+     * @param callback called on main thread with Note, fields changed by journal are marked as changed.
+     *                 Gets SQLiteException if note doesn't exist or can't be read
+     * @return Future of the load, cancel it when its result isn't needed anymore
+     */
+    public static Future<Note> load(Context context, int noteId, DatabaseExecutor.Callback<Note> callback) {
+        return DatabaseExecutor.getInstance().readAfterWrites(createLoad(context, noteId), callback);
+    }
+
+    /**
+     * Method used to load note with edits from its journal applied, blocks until journal work queued before is done
+     * Can't be called on main thread or writer thread of DatabaseExecutor
+     * @param context any Context
+     * @param noteId KEY_ID of note to load
+     * @return Note with fields changed by journal marked as changed
+     * @throws SQLiteException if note doesn't exist or can't be read
+     */
+    public static Note load(Context context, int noteId) throws SQLiteException {
+        DatabaseExecutor dbExecutor = DatabaseExecutor.getInstance();
+        if (dbExecutor.isWriterThread()) {
+            throw new IllegalStateException("Waiting for writer thread on itself would never end");
+        }
+        try {
+            return dbExecutor.readAfterWrites(createLoad(context, noteId), null).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLiteException) {
+                throw (SQLiteException) e.getCause();
+            }
+            SQLiteException exception = new SQLiteException("Can't read journal of note " + noteId);
+            exception.initCause(e.getCause());
+            throw exception;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLiteException("Loading note " + noteId + " was interrupted");
+        }
+    }
+
+    private static Callable<Note> createLoad(Context context, final int noteId) {
+        final NoteRepository repository = NoteRepository.getInstance(context);
+        final File file = new File(getDirectory(context), String.valueOf(noteId));
+        return new Callable<Note>() {
+            @Override
+            public Note call() throws IOException {
+                Note note = repository.getNote(noteId);
+                if (file.exists() && !replay(note, readFile(file))) {
+                    // Journal files are changed only on writer thread, compaction there drops the stale one
+                    DatabaseExecutor.getInstance().write(new Runnable() {
+                        @Override
+                        public void run() {
+                            compact(repository, noteId, file);
+                        }
+                    });
+                }
+                return note;
+            }
+        };
+    }
+
+    /**
+     * Method used to compact journals left by process that was killed while notes were edited
+     * @param context any Context
+     */
+    public static void compactAll(Context context) {
+        final NoteRepository repository = NoteRepository.getInstance(context);
+        final File directory = getDirectory(context);
+        DatabaseExecutor.getInstance().write(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = directory.listFiles();
+                if (files == null) {
+                    return;
+                }
+                for (File file : files) {
+                    try {
+                        compact(repository, Integer.parseInt(file.getName()), file);
+                    } catch (NumberFormatException e) {
+                        file.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return true if any edit was recorded
+     */
+    public boolean hasChanges() {
+        return hasChanges;
+    }
+
+    /**
+     * Method used to record replaced part of text
+     * @param start start of replaced part
+     * @param length length of replaced part
+     * @param text text that replaced it, its spans aren't recorded
+     */
+    public void replaceText(int start, int length, String text) {
+        Operation operation = new Operation(OP_REPLACE_TEXT);
+        try {
+            operation.writeInt(start);
+            operation.writeInt(length);
+            operation.writeString(text);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        endOperation(operation);
+    }
+
+    /**
+     * Method used to record whole text with its spans, i.e. after it was set or replaced at once
+     */
+    public void setText(Spanned text) {
+        Operation operation = new Operation(OP_SET_TEXT);
+        try {
+            byte[] encoded = SpanCodec.encode(text);
+            operation.writeInt(encoded.length);
+            operation.write(encoded);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        endOperation(operation);
+    }
+
+    /**
+     * Method used to record span set on text
+     * @param span StyleSpan, UnderlineSpan or ForegroundColorSpan, other spans aren't recorded
+     */
+    public void setSpan(Object span, int start, int end, int flags) {
+        byte type;
+        int value = 0;
+        if (span instanceof StyleSpan) {
+            type = SPAN_STYLE;
+            value = ((StyleSpan) span).getStyle();
+        } else if (span instanceof UnderlineSpan) {
+            type = SPAN_UNDERLINE;
+        } else if (span instanceof ForegroundColorSpan) {
+            type = SPAN_FOREGROUND_COLOR;
+            value = ((ForegroundColorSpan) span).getForegroundColor();
+        } else {
+            return;
+        }
+        Operation operation = new Operation(OP_SET_SPAN);
+        try {
+            operation.writeByte(type);
+            operation.writeInt(value);
+            operation.writeInt(start);
+            operation.writeInt(end);
+            operation.writeInt(flags);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        endOperation(operation);
+    }
+
+    /**
+     * Method used to record title, only the last title set before flush is written
+     */
+    public void setTitle(String title) {
+        pendingTitle = title;
+        hasChanges = true;
+        scheduleFlush();
+    }
+
+    @Override
+    public void onStroke(DrawingView.Stroke stroke) {
+        Operation operation = new Operation(OP_STROKE);
+        try {
+            operation.writeInt(stroke.color);
+            operation.writeFloat(stroke.width);
+            operation.writeBoolean(stroke.erase);
+            operation.writeInt(stroke.canvasWidth);
+            operation.writeInt(stroke.canvasHeight);
+            operation.writeInt(stroke.points.length);
+            for (float point : stroke.points) {
+                operation.writeFloat(point);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        endOperation(operation);
+    }
+
+    @Override
+    public void onClear() {
+        endOperation(new Operation(OP_CLEAR_DRAWING));
+    }
+
+    /**
+     * Method used to append recorded operations to journal file right away, i.e. when activity is paused
+     */
+    public void flush() {
+        mainHandler.removeCallbacks(flushRunnable);
+        if (pendingTitle != null) {
+            Operation operation = new Operation(OP_SET_TITLE);
+            try {
+                operation.writeString(pendingTitle);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            writeRecord(operation);
+            pendingTitle = null;
+        }
+        if (pendingOperations.size() == 0) {
+            return;
+        }
+        final byte[] records = pendingOperations.toByteArray();
+        pendingOperations.reset();
+        dbExecutor.write(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    append(records);
+                } catch (IOException | SQLiteException e) {
+                    Log.e(TAG, "Can't append to journal of note " + noteId, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Method used to write all recorded edits to notes row in background, called when editing is finished
+     */
+    public void commit() {
+        flush();
+        dbExecutor.write(new Runnable() {
+            @Override
+            public void run() {
+                if (noteId != -1) {
+                    compact(repository, noteId, getFile());
+                }
+            }
+        });
+    }
+
+    private void endOperation(Operation operation) {
+        writeRecord(operation);
+        hasChanges = true;
+        scheduleFlush();
+    }
+
+    private void writeRecord(Operation operation) {
+        try {
+            operation.writeRecordTo(new DataOutputStream(pendingOperations));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void scheduleFlush() {
+        mainHandler.removeCallbacks(flushRunnable);
+        mainHandler.postDelayed(flushRunnable, FLUSH_DELAY_MILLIS);
+    }
+
+    /**
+     * Method used to append records to journal file, runs on writer thread
+     */
+    private void append(byte[] records) throws IOException {
+        if (noteId == -1) {
+            // New note gets its row with first edit, journal needs it as base
+            Note note = new Note();
+            note.setTitle("");
+            note.setSpannable(new SpannableString(""));
+            NoteSummary summary = repository.createNote(note);
+            if (summary == null) {
+                throw new IOException("Can't create note");
+            }
+            noteId = summary.getId();
+        }
+
+        File file = getFile();
+        FileOutputStream stream;
+        if (file.exists()) {
+            stream = new FileOutputStream(file, true);
+        } else {
+            // Journal starts from notes row as it's now, previous journal was compacted into it.
+            // Note in trash gets journal too, it may be restored
+            long version = repository.getNoteVersion(noteId);
+            if (version == -1) {
+                Log.w(TAG, "Note " + noteId + " was deleted, edits are dropped");
+                return;
+            }
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Can't create " + directory);
+            }
+            stream = new FileOutputStream(file);
+            Operation base = new Operation(OP_BASE);
+            base.writeLong(version);
+            base.writeRecordTo(new DataOutputStream(stream));
+        }
+        try {
+            stream.write(records);
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+
+        if (file.length() > COMPACT_SIZE) {
+            compact(repository, noteId, file);
+        }
+    }
+
+    private File getFile() {
+        return new File(directory, String.valueOf(noteId));
+    }
+
+    private static File getDirectory(Context context) {
+        return new File(context.getFilesDir(), DIRECTORY_NAME);
+    }
+
+    /**
+     * Method used to write note with journal applied to notes row and delete journal, runs on writer thread
+     * Journal is deleted after row is written, if that doesn't happen its base shows it's stale.
+     * Journal of note in trash is kept until note is restored, or deleted once note is purged
+     */
+    private static void compact(NoteRepository repository, int noteId, File file) {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            if (repository.getNoteVersion(noteId) == -1) {
+                Log.w(TAG, "Note " + noteId + " was purged, its journal is dropped");
+                file.delete();
+                return;
+            }
+            if (repository.getNoteSummary(noteId) == null) {
+                // In trash, compactAll() tries again on next start
+                return;
+            }
+            Note note = repository.getNote(noteId);
+            if (replay(note, readFile(file))) {
+                repository.updateNote(note);
+                file.delete();
+            } else {
+                dropStale(noteId, file);
+            }
+        } catch (IOException | SQLiteException e) {
+            // Journal is kept, compactAll() tries again on next start
+            Log.e(TAG, "Can't compact journal of note " + noteId, e);
+        }
+    }
+
+    /**
+     * Method used to delete journal that doesn't apply to notes row anymore
+     * Edits in it are lost, i.e. when revision was restored while note was edited
+     */
+    private static void dropStale(int noteId, File file) {
+        Log.w(TAG, "Journal of note " + noteId + " is stale, " + file.length() + " bytes of edits are dropped");
+        file.delete();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream stream = new DataInputStream(new FileInputStream(file));
+        try {
+            stream.readFully(bytes);
+        } finally {
+            stream.close();
+        }
+        return bytes;
+    }
+
+    /**
+     * Method used to apply journal to note loaded from notes row
+     * Records following torn or corrupted record are ignored, they were being written when process was killed
+     * @param note note to change, fields changed by journal are marked as changed
+     * @param journal content of journal file
+     * @return false if journal is stale and note wasn't changed
+     */
+    static boolean replay(Note note, byte[] journal) {
+        note.setTitleChanged(false);
+        note.setSpannableChanged(false);
+        note.setImageChanged(false);
+
+        DataInputStream records = new DataInputStream(new ByteArrayInputStream(journal));
+        SpannableStringBuilder text = new SpannableStringBuilder(note.getSpannable());
+        // Drawing made of strokes gets new ones added, raster drawing gets them drawn on it
+        StrokeDrawing strokes = note.getStrokes() != null ? new StrokeDrawing(note.getStrokes()) : null;
+        Bitmap image = strokes == null ? note.getImage() : null;
+        boolean isBaseRead = false;
+        try {
+            while (records.available() > 0) {
+                int length = records.readInt();
+                if (length <= 0 || length > records.available()) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                records.readFully(bytes);
+                if (records.readInt() != checksum(bytes)) {
+                    break;
+                }
+
+                DataInputStream operation = new DataInputStream(new ByteArrayInputStream(bytes));
+                byte type = operation.readByte();
+                if (!isBaseRead) {
+                    if (type != OP_BASE || operation.readLong() != note.getVersion()) {
+                        return false;
+                    }
+                    isBaseRead = true;
+                    continue;
+                }
+                switch (type) {
+                    case OP_REPLACE_TEXT: {
+                        int start = operation.readInt();
+                        int end = start + operation.readInt();
+                        text.replace(start, end, readString(operation));
+                        note.setSpannableChanged(true);
+                        break;
+                    }
+                    case OP_SET_TEXT: {
+                        byte[] encoded = new byte[operation.readInt()];
+                        operation.readFully(encoded);
+                        text = new SpannableStringBuilder(SpanCodec.decode(encoded));
+                        note.setSpannableChanged(true);
+                        break;
+                    }
+                    case OP_SET_SPAN: {
+                        byte spanType = operation.readByte();
+                        int value = operation.readInt();
+                        Object span;
+                        if (spanType == SPAN_STYLE) {
+                            span = new StyleSpan(value);
+                        } else if (spanType == SPAN_UNDERLINE) {
+                            span = new UnderlineSpan();
+                        } else {
+                            span = new ForegroundColorSpan(value);
+                        }
+                        text.setSpan(span, operation.readInt(), operation.readInt(), operation.readInt());
+                        note.setSpannableChanged(true);
+                        break;
+                    }
+                    case OP_SET_TITLE:
+                        note.setTitle(readString(operation));
+                        note.setTitleChanged(true);
+                        break;
+                    case OP_STROKE: {
+                        int color = operation.readInt();
+                        float width = operation.readFloat();
+                        boolean erase = operation.readBoolean();
+                        int canvasWidth = operation.readInt();
+                        int canvasHeight = operation.readInt();
+                        float[] points = new float[operation.readInt()];
+                        for (int i = 0; i < points.length; i++) {
+                            points[i] = operation.readFloat();
+                        }
+                        DrawingView.Stroke stroke = new DrawingView.Stroke(color, width, erase, points,
+                                canvasWidth, canvasHeight);
+                        if (image == null && strokes == null) {
+                            strokes = new StrokeDrawing(canvasWidth, canvasHeight);
+                        }
+                        if (strokes != null) {
+                            strokes.add(stroke);
+                        } else {
+                            image = getMutableImage(image, canvasWidth, canvasHeight);
+                            stroke.drawOn(new Canvas(image));
+                        }
+                        note.setImageChanged(true);
+                        break;
+                    }
+                    case OP_CLEAR_DRAWING:
+                        // Cleared raster drawing is continued with strokes
+                        if (strokes != null) {
+                            strokes.clear();
+                            note.setImageChanged(true);
+                        } else if (image != null) {
+                            strokes = new StrokeDrawing(image.getWidth(), image.getHeight());
+                            image = null;
+                            note.setImageChanged(true);
+                        }
+                        break;
+                    default:
+                        // Written by newer version, can't apply the rest
+                        Log.w(TAG, "Unknown journal operation " + type);
+                        return isBaseRead;
+                }
+            }
+        } catch (IOException | IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+            // Malformed operation, keep edits applied before it
+            Log.e(TAG, "Malformed journal of note " + note.getId(), e);
+        } finally {
+            note.setSpannable(text);
+            if (strokes != null) {
+                note.setStrokes(strokes);
+            } else {
+                note.setImage(image);
+            }
+        }
+        return isBaseRead;
+    }
+
+    private static Bitmap getMutableImage(Bitmap image, int width, int height) {
+        if (image == null) {
+            return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        return image.isMutable() ? image : image.copy(Bitmap.Config.ARGB_8888, true);
+    }
+
+    /**
+     * Single operation, written to journal as record with its length and checksum
+     */
+    private static class Operation extends DataOutputStream {
+
+        Operation(byte type) {
+            super(new ByteArrayOutputStream());
+            try {
+                writeByte(type);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        // Unlike writeUTF(), length of text isn't limited
+        void writeString(String text) throws IOException {
+            byte[] bytes = text.getBytes(UTF_8);
+            writeInt(bytes.length);
+            write(bytes);
+        }
+
+        void writeRecordTo(DataOutputStream stream) throws IOException {
+            byte[] bytes = ((ByteArrayOutputStream) out).toByteArray();
+            stream.writeInt(bytes.length);
+            stream.write(bytes);
+            stream.writeInt(checksum(bytes));
+        }
+    }
+
+    private static String readString(DataInputStream operation) throws IOException {
+        byte[] bytes = new byte[operation.readInt()];
+        operation.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static int checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+}
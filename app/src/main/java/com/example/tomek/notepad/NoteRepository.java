@@ -0,0 +1,353 @@
+package com.example.tomek.notepad;
+
+import android.arch.lifecycle.Lifecycle;
+import android.arch.lifecycle.LifecycleObserver;
+import android.arch.lifecycle.LifecycleOwner;
+import android.arch.lifecycle.OnLifecycleEvent;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Class used to access notes, wraps DatabaseHandler and tells observers about changes made to notes table
+ * Changes made by several writes are merged and delivered once on main thread,
+ * observers get them only while their LifecycleOwner is at least started
+ * Methods accessing notes block on disk, UI calls them through DatabaseExecutor
+ */
+public class NoteRepository {
+
+    /**
+     * Interface of notes table observer
+     */
+    public interface OnNotesChangedListener {
+        /**
+         * Called on main thread after notes table was changed
+         * @param change changes made since previous call
+         */
+        void onNotesChanged(NotesChange change);
+    }
+
+    private static NoteRepository sInstance;
+
+    private final DatabaseHandler dbHandler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Observers, touched only on main thread
+    private final ArrayList<ObserverWrapper> observers = new ArrayList<>();
+
+    // Changes not delivered yet, guarded by this
+    private NotesChange pendingChange;
+
+    private final Runnable dispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatchPendingChange();
+        }
+    };
+
+    private NoteRepository(DatabaseHandler dbHandler) {
+        this.dbHandler = dbHandler;
+    }
+
+    /**
+     * Method used to get shared NoteRepository
+     * @param context any Context, only application Context is kept
+     * @return process-wide NoteRepository
+     */
+    public static synchronized NoteRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NoteRepository(DatabaseHandler.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Method used to observe notes table
+     * Listener is removed when owner is destroyed, so owner doesn't leak
+     * Changes made while owner is stopped are merged and delivered when it starts again
+     * Has to be called on main thread
+     * @param owner LifecycleOwner which lifecycle bounds the listener, i.e. Activity
+     * @param listener listener to notify
+     */
+    public void observe(LifecycleOwner owner, OnNotesChangedListener listener) {
+        if (owner.getLifecycle().getCurrentState() == Lifecycle.State.DESTROYED) {
+            return;
+        }
+        ObserverWrapper wrapper = new ObserverWrapper(owner, listener);
+        observers.add(wrapper);
+        owner.getLifecycle().addObserver(wrapper);
+    }
+
+    /**
+     * Method used to put Note object into Database
+     * @param note Note object to put into DB
+     * @return NoteSummary of created note, null if it wasn't created
+     */
+    public NoteSummary createNote(Note note) {
+        long id = dbHandler.createNote(note);
+        if (id == -1) {
+            return null;
+        }
+        NoteSummary summary = dbHandler.getNoteSummary((int) id);
+        NotesChange change = new NotesChange();
+        if (summary != null) {
+            change.addSaved(summary, true);
+        } else {
+            change.invalidate();
+        }
+        postChange(change);
+        return summary;
+    }
+
+    /**
+     * Method used to update Note in Database
+     * @param note Note to update
+     * @return NoteSummary of updated note, null when note has no changes or doesn't exist
+     */
+    public NoteSummary updateNote(Note note) {
+        NoteSummary summary = dbHandler.updateNote(note);
+        if (summary != null) {
+            NotesChange change = new NotesChange();
+            change.addSaved(summary, false);
+            postChange(change);
+        }
+        return summary;
+    }
+
+    /**
+     * Method used to bring note back to its earlier revision
+     * @param revisionId id of NoteRevision
+     * @return NoteSummary of restored note, null when it's the same as revision
+     */
+    public NoteSummary restoreRevision(int revisionId) {
+        NoteSummary summary = dbHandler.restoreRevision(revisionId);
+        if (summary != null) {
+            NotesChange change = new NotesChange();
+            change.addSaved(summary, false);
+            postChange(change);
+        }
+        return summary;
+    }
+
+    /**
+     * Method used to delete Note from Database
+     * @param noteId KEY_ID of note to delete
+     */
+    public void deleteNote(int noteId) {
+        dbHandler.deleteNote(noteId);
+        NotesChange change = new NotesChange();
+        change.addDeleted(noteId);
+        postChange(change);
+    }
+
+    /**
+     * Method used to move notes to trash, they're deleted for good by TrashPurger later
+     * @param noteIds KEY_IDs of notes to trash
+     * @return id of trash batch, used to undo by restoreTrashedNotes()
+     */
+    public long trashNotes(int... noteIds) {
+        long trashId = dbHandler.trashNotes(noteIds);
+        NotesChange change = new NotesChange();
+        for (int id : noteIds) {
+            change.addDeleted(id);
+        }
+        postChange(change);
+        return trashId;
+    }
+
+    /**
+     * Method used to move all notes to trash, they're deleted for good by TrashPurger later
+     * @return id of trash batch, used to undo by restoreTrashedNotes()
+     */
+    public long trashAllNotes() {
+        long trashId = dbHandler.trashAllNotes();
+        postInvalidation();
+        return trashId;
+    }
+
+    /**
+     * Method used to undo trashNotes() or trashAllNotes()
+     * @param trashId id of trash batch
+     * @return count of restored notes, 0 if they were purged already
+     */
+    public int restoreTrashedNotes(long trashId) {
+        int restoredCount = dbHandler.restoreTrashedNotes(trashId);
+        if (restoredCount > 0) {
+            postInvalidation();
+        }
+        return restoredCount;
+    }
+
+    /**
+     * Method used to put several notes into Database in single transaction
+     * @return KEY_IDs of created notes, in order of given collection
+     */
+    public long[] createNotes(Collection<Note> notes) {
+        long[] ids = dbHandler.createNotes(notes);
+        postInvalidation();
+        return ids;
+    }
+
+    /**
+     * Method used to update several notes in single transaction
+     * @return count of updated notes
+     */
+    public int updateNotes(Collection<Note> notes) {
+        int updatedCount = dbHandler.updateNotes(notes);
+        if (updatedCount > 0) {
+            postInvalidation();
+        }
+        return updatedCount;
+    }
+
+    /**
+     * Method used to delete several notes in single transaction
+     * @return count of deleted notes
+     */
+    public int deleteNotes(int... noteIds) {
+        int deletedCount = dbHandler.deleteNotes(noteIds);
+        NotesChange change = new NotesChange();
+        for (int id : noteIds) {
+            change.addDeleted(id);
+        }
+        postChange(change);
+        return deletedCount;
+    }
+
+    /**
+     * Method used to delete all notes
+     */
+    public void clearAllNotes() {
+        dbHandler.clearAllNotes();
+        postInvalidation();
+    }
+
+    public Note getNote(int id) {
+        return dbHandler.getNote(id);
+    }
+
+    public NoteSummary getNoteSummary(int id) {
+        return dbHandler.getNoteSummary(id);
+    }
+
+    public long getNoteVersion(int id) {
+        return dbHandler.getNoteVersion(id);
+    }
+
+    public ArrayList<NoteRevision> getRevisions(int noteId) {
+        return dbHandler.getRevisions(noteId);
+    }
+
+    public Note getRevision(int revisionId) {
+        return dbHandler.getRevision(revisionId);
+    }
+
+    public int getNoteCount() {
+        return dbHandler.getNoteCount();
+    }
+
+    public ArrayList<NoteSummary> search(String query, int limit) {
+        return dbHandler.search(query, limit);
+    }
+
+    public ArrayList<NoteSummary> getNoteSummariesAfter(NoteSummary anchor, int limit) {
+        return dbHandler.getNoteSummariesAfter(anchor, limit);
+    }
+
+    public ArrayList<NoteSummary> getNoteSummariesBefore(NoteSummary anchor, int limit) {
+        return dbHandler.getNoteSummariesBefore(anchor, limit);
+    }
+
+    public ArrayList<NoteSummary> getNoteSummariesAt(int offset, int limit) {
+        return dbHandler.getNoteSummariesAt(offset, limit);
+    }
+
+    /**
+     * Method used to tell observers that notes were changed outside of NoteRepository, i.e. by DataMigration
+     */
+    void notifyInvalidated() {
+        postInvalidation();
+    }
+
+    private void postInvalidation() {
+        NotesChange change = new NotesChange();
+        change.invalidate();
+        postChange(change);
+    }
+
+    /**
+     * Method used to queue change for observers
+     * Dispatch is posted only once until it runs, so burst of writes ends up in single notification
+     */
+    private void postChange(NotesChange change) {
+        synchronized (this) {
+            if (pendingChange != null) {
+                pendingChange.merge(change);
+                return;
+            }
+            pendingChange = change;
+        }
+        mainHandler.post(dispatchRunnable);
+    }
+
+    private void dispatchPendingChange() {
+        NotesChange change;
+        synchronized (this) {
+            change = pendingChange;
+            pendingChange = null;
+        }
+        if (change == null) {
+            return;
+        }
+        // Copy, as listeners might add observers
+        for (ObserverWrapper observer : new ArrayList<>(observers)) {
+            observer.onChange(change);
+        }
+    }
+
+    /**
+     * Binds listener to lifecycle of its owner
+     */
+    private class ObserverWrapper implements LifecycleObserver {
+
+        private final LifecycleOwner owner;
+        private final OnNotesChangedListener listener;
+
+        // Changes made while owner wasn't started, null if there are none
+        private NotesChange missedChange;
+
+        ObserverWrapper(LifecycleOwner owner, OnNotesChangedListener listener) {
+            this.owner = owner;
+            this.listener = listener;
+        }
+
+        @OnLifecycleEvent(Lifecycle.Event.ON_START)
+        void onStart() {
+            if (missedChange != null) {
+                NotesChange change = missedChange;
+                missedChange = null;
+                listener.onNotesChanged(change);
+            }
+        }
+
+        @OnLifecycleEvent(Lifecycle.Event.ON_DESTROY)
+        void onDestroy() {
+            observers.remove(this);
+            owner.getLifecycle().removeObserver(this);
+        }
+
+        void onChange(NotesChange change) {
+            if (owner.getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED)) {
+                listener.onNotesChanged(change);
+            } else {
+                if (missedChange == null) {
+                    missedChange = new NotesChange();
+                }
+                missedChange.merge(change);
+            }
+        }
+    }
+}
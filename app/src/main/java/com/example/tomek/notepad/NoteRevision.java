@@ -0,0 +1,53 @@
+package com.example.tomek.notepad;
+
+import java.util.Date;
+
+/**
+ * Earlier version of a note, as listed by DatabaseHandler.getRevisions()
+ * Contains only what's needed to choose revision, content is reconstructed by DatabaseHandler.getRevision()
+ */
+public class NoteRevision {
+
+    // Id of revision, ascending in order of saving
+    private final int mId;
+
+    // KEY_ID of Note this is revision of
+    private final int mNoteId;
+
+    // Title of Note in this revision
+    private final String mTitle;
+
+    // Date when Note was updated to this revision
+    private final Date mDateUpdated;
+
+    // Bytes used by revision in database, without drawing files it shares with other revisions and notes
+    private final long mStoredBytes;
+
+    public NoteRevision(int id, int noteId, String title, Date dateUpdated, long storedBytes) {
+        this.mId = id;
+        this.mNoteId = noteId;
+        this.mTitle = title;
+        this.mDateUpdated = dateUpdated;
+        this.mStoredBytes = storedBytes;
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    public int getNoteId() {
+        return mNoteId;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public Date getDateUpdated() {
+        return mDateUpdated;
+    }
+
+    public long getStoredBytes() {
+        return mStoredBytes;
+    }
+}
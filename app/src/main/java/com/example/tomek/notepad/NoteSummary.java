@@ -0,0 +1,61 @@
+package com.example.tomek.notepad;
+
+import java.util.Date;
+
+/**
+ * Lightweight projection of a Note used by the notes list.
+ * Contains only what a list row shows, no spannable and no drawing.
+ */
+public class NoteSummary {
+
+    // KEY_ID of Note
+    private final int mId;
+
+    // Title of Note (may be empty)
+    private final String mTitle;
+
+    // Short plain text preview of Note's content, search results have matches highlighted
+    private final CharSequence mPreview;
+
+    // Count of characters of Note's whole text
+    private final int mCharacterCount;
+
+    // Date of last update
+    private final Date mDateUpdated;
+
+    // True when Note has a drawing attached
+    private final boolean mHasDrawing;
+
+    public NoteSummary(int id, String title, CharSequence preview, int characterCount, Date dateUpdated, boolean hasDrawing) {
+        this.mId = id;
+        this.mTitle = title;
+        this.mPreview = preview;
+        this.mCharacterCount = characterCount;
+        this.mDateUpdated = dateUpdated;
+        this.mHasDrawing = hasDrawing;
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public CharSequence getPreview() {
+        return mPreview;
+    }
+
+    public int getCharacterCount() {
+        return mCharacterCount;
+    }
+
+    public Date getDateUpdated() {
+        return mDateUpdated;
+    }
+
+    public boolean hasDrawing() {
+        return mHasDrawing;
+    }
+}
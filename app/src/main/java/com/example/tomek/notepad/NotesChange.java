@@ -0,0 +1,122 @@
+package com.example.tomek.notepad;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * Class describing changes made to notes table since observers were last notified
+ * Changes of several writes are merged, so observers apply them at once
+ */
+public class NotesChange {
+
+    // Count of single changes after which observers should rather reload than apply them one by one
+    static final int MAX_TRACKED_CHANGES = PagedNoteAdapter.PAGE_SIZE;
+
+    // Saved notes in order of saving, last saved is on top of notes list
+    private final LinkedHashMap<Integer, NoteSummary> saved = new LinkedHashMap<>();
+
+    // KEY_IDs of saved notes that were created, not updated
+    private final Set<Integer> created = new HashSet<>();
+
+    // KEY_IDs of deleted notes
+    private final Set<Integer> deleted = new HashSet<>();
+
+    // True if table changed in a way that can't be described by single notes
+    private boolean invalidated;
+
+    /**
+     * Method used to record created or updated note
+     * @param note NoteSummary of note as it was persisted
+     * @param isNew true if note was created
+     */
+    void addSaved(NoteSummary note, boolean isNew) {
+        // Re-inserting moves note to the end, as it's now the most recently saved one
+        saved.remove(note.getId());
+        saved.put(note.getId(), note);
+        if (isNew) {
+            created.add(note.getId());
+        }
+        checkSize();
+    }
+
+    /**
+     * Method used to record deleted note
+     * @param id KEY_ID of deleted note
+     */
+    void addDeleted(int id) {
+        saved.remove(id);
+        if (!created.remove(id)) {
+            // Note created in the same change was never seen by observers
+            deleted.add(id);
+        }
+        checkSize();
+    }
+
+    /**
+     * Method used to record change that requires observers to reload
+     */
+    void invalidate() {
+        invalidated = true;
+        saved.clear();
+        created.clear();
+        deleted.clear();
+    }
+
+    /**
+     * Method used to merge later change into this one
+     * @param change change made after this one
+     */
+    void merge(NotesChange change) {
+        if (invalidated) {
+            return;
+        }
+        if (change.invalidated) {
+            invalidate();
+            return;
+        }
+        for (int id : change.deleted) {
+            addDeleted(id);
+        }
+        for (NoteSummary note : change.saved.values()) {
+            addSaved(note, change.created.contains(note.getId()));
+        }
+    }
+
+    /**
+     * @return true if observers have to reload instead of applying single changes
+     */
+    public boolean isInvalidated() {
+        return invalidated;
+    }
+
+    /**
+     * @return saved notes, in order of saving
+     */
+    public Collection<NoteSummary> getSaved() {
+        return new ArrayList<>(saved.values());
+    }
+
+    /**
+     * @param id KEY_ID of saved note
+     * @return true if note was created, false if it was updated
+     */
+    public boolean isCreated(int id) {
+        return created.contains(id);
+    }
+
+    /**
+     * @return KEY_IDs of deleted notes
+     */
+    public Collection<Integer> getDeleted() {
+        return new ArrayList<>(deleted);
+    }
+
+    private void checkSize() {
+        if (saved.size() + deleted.size() > MAX_TRACKED_CHANGES) {
+            invalidate();
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.example.tomek.notepad;
+
+import android.content.Context;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Adapter of notes list that keeps in memory only a window of pages around visible rows.
+ * Pages are loaded from NoteRepository as ListView scrolls, pages far from visible ones are evicted.
+ * Changes reported by NoteRepository are applied to loaded pages, so saves don't reload the list.
+ * Count and pages are read on DatabaseExecutor, rows are empty until their page arrives.
+ */
+public class PagedNoteAdapter extends BaseAdapter implements NoteRepository.OnNotesChangedListener {
+
+    // Count of NoteSummaries loaded at once
+    static final int PAGE_SIZE = 50;
+
+    // Max count of pages kept in memory
+    static final int MAX_LOADED_PAGES = 5;
+
+    private final Context context;
+    private final int layoutResourceId;
+    private final NoteRepository repository;
+    private final DatabaseExecutor dbExecutor = DatabaseExecutor.getInstance();
+
+    // Loaded, contiguous part of notes list
+    private final ArrayList<NoteSummary> window = new ArrayList<>();
+
+    // Position of first loaded NoteSummary in notes list
+    private int windowStart = 0;
+
+    // Count of all notes in Database, 0 until it's read
+    private int count;
+
+    // Reads running in background, null when none is
+    private Future<Integer> countLoad;
+    private Future<List<NoteSummary>> pageLoad;
+
+    public PagedNoteAdapter(Context context, int layoutResourceId, NoteRepository repository) {
+        this.context = context;
+        this.layoutResourceId = layoutResourceId;
+        this.repository = repository;
+        refresh();
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public NoteSummary getItem(int position) {
+        ensureLoaded(position);
+        return getLoadedItem(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        // ListView asks for ids of rows it doesn't show too, their pages aren't loaded for that
+        NoteSummary note = getLoadedItem(position);
+        return note == null ? -1 : note.getId();
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        // Rows have no id until their page is loaded
+        return false;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        return NoteAdapter.getNoteView(context, layoutResourceId, getItem(position), convertView, parent);
+    }
+
+    @Override
+    public void onNotesChanged(NotesChange change) {
+        // Count being read might not include the change
+        if (change.isInvalidated() || countLoad != null) {
+            refresh();
+            return;
+        }
+        // Loaded page would be placed by window it was requested for
+        cancelPageLoad();
+        for (int id : change.getDeleted()) {
+            applyDeleted(id);
+        }
+        for (NoteSummary note : change.getSaved()) {
+            applySaved(note, change.isCreated(note.getId()));
+        }
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Method used to drop loaded pages and reload count of notes in background
+     */
+    public void refresh() {
+        cancelPageLoad();
+        if (countLoad != null) {
+            countLoad.cancel(false);
+        }
+        window.clear();
+        windowStart = 0;
+        countLoad = dbExecutor.read(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return repository.getNoteCount();
+            }
+        }, new DatabaseExecutor.Callback<Integer>() {
+            @Override
+            public void onResult(Integer result) {
+                countLoad = null;
+                count = result;
+                notifyDataSetChanged();
+            }
+        });
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Method used to put saved note on top of the list without reloading it
+     * Saved note is always the most recently updated one, so only positions above its old one shift
+     * @param note NoteSummary of saved note, as returned by DatabaseHandler
+     * @param isNew true if note was just created, false if it was updated
+     */
+    private void applySaved(NoteSummary note, boolean isNew) {
+        int index = indexInWindow(note.getId());
+        if (isNew && index == -1) {
+            count++;
+        }
+
+        if (windowStart == 0) {
+            // Loaded rows start at top, so saved note simply moves there
+            if (index != -1) {
+                window.remove(index);
+            }
+            window.add(0, note);
+            evictFromEnd();
+        } else if (index != -1) {
+            // Rows above old position shift down, rows below it stay where they were
+            window.subList(0, index + 1).clear();
+            windowStart += index + 1;
+        } else if (isNew) {
+            windowStart++;
+        } else {
+            // Old position is unknown, so it isn't known if loaded rows shift
+            window.clear();
+            windowStart = 0;
+        }
+    }
+
+    /**
+     * Method used to drop deleted note from the list without reloading it
+     * @param noteId KEY_ID of deleted note
+     */
+    private void applyDeleted(int noteId) {
+        int index = indexInWindow(noteId);
+        count = Math.max(0, count - 1);
+        if (index != -1) {
+            window.remove(index);
+        } else if (windowStart > 0) {
+            // Deleted note could be above loaded rows, so they might have shifted
+            window.clear();
+            windowStart = 0;
+        }
+    }
+
+    /**
+     * Method used to get NoteSummary at given position if its page is loaded, nothing is loaded by it
+     * @return null if page is being loaded, or Database changed since count was read and refresh() will fix it
+     */
+    private NoteSummary getLoadedItem(int position) {
+        int index = position - windowStart;
+        if (index < 0 || index >= window.size()) {
+            return null;
+        }
+        return window.get(index);
+    }
+
+    private int indexInWindow(int noteId) {
+        for (int i = 0; i < window.size(); i++) {
+            if (window.get(i).getId() == noteId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Method used to make sure that NoteSummary at given position is loaded, or is being loaded
+     * Neighbouring pages are fetched with keyset queries, any other position causes jump to its page
+     * Only one page is loaded at a time, rows still missing ask again when it's added
+     */
+    private void ensureLoaded(int position) {
+        int windowEnd = windowStart + window.size();
+        if (position >= windowStart && position < windowEnd) {
+            return;
+        }
+        if (pageLoad != null) {
+            return;
+        }
+
+        if (!window.isEmpty() && position >= windowEnd && position < windowEnd + PAGE_SIZE) {
+            final NoteSummary anchor = window.get(window.size() - 1);
+            loadPage(new Callable<List<NoteSummary>>() {
+                @Override
+                public List<NoteSummary> call() {
+                    return repository.getNoteSummariesAfter(anchor, PAGE_SIZE);
+                }
+            }, new PageCallback() {
+                @Override
+                void onPage(List<NoteSummary> page) {
+                    window.addAll(page);
+                    evictFromStart();
+                }
+            });
+        } else if (!window.isEmpty() && position < windowStart && position >= windowStart - PAGE_SIZE) {
+            final NoteSummary anchor = window.get(0);
+            loadPage(new Callable<List<NoteSummary>>() {
+                @Override
+                public List<NoteSummary> call() {
+                    return repository.getNoteSummariesBefore(anchor, PAGE_SIZE);
+                }
+            }, new PageCallback() {
+                @Override
+                void onPage(List<NoteSummary> page) {
+                    window.addAll(0, page);
+                    windowStart -= page.size();
+                    evictFromEnd();
+                }
+            });
+        } else {
+            final int pageStart = position - position % PAGE_SIZE;
+            loadPage(new Callable<List<NoteSummary>>() {
+                @Override
+                public List<NoteSummary> call() {
+                    return repository.getNoteSummariesAt(pageStart, PAGE_SIZE);
+                }
+            }, new PageCallback() {
+                @Override
+                void onPage(List<NoteSummary> page) {
+                    window.clear();
+                    window.addAll(page);
+                    windowStart = pageStart;
+                }
+            });
+        }
+    }
+
+    private void loadPage(Callable<List<NoteSummary>> query, PageCallback callback) {
+        pageLoad = dbExecutor.read(query, callback);
+    }
+
+    private void cancelPageLoad() {
+        if (pageLoad != null) {
+            pageLoad.cancel(false);
+            pageLoad = null;
+        }
+    }
+
+    private void evictFromStart() {
+        int excess = window.size() - MAX_LOADED_PAGES * PAGE_SIZE;
+        if (excess > 0) {
+            window.subList(0, excess).clear();
+            windowStart += excess;
+        }
+    }
+
+    private void evictFromEnd() {
+        int excess = window.size() - MAX_LOADED_PAGES * PAGE_SIZE;
+        if (excess > 0) {
+            window.subList(window.size() - excess, window.size()).clear();
+        }
+    }
+
+    /**
+     * Callback that adds loaded page to the window and shows its rows
+     */
+    private abstract class PageCallback extends DatabaseExecutor.Callback<List<NoteSummary>> {
+
+        @Override
+        public void onResult(List<NoteSummary> page) {
+            pageLoad = null;
+            onPage(page);
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public void onError(Exception e) {
+            pageLoad = null;
+            super.onError(e);
+        }
+
+        abstract void onPage(List<NoteSummary> page);
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.tomek.notepad;
+
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StyleSpan;
+import android.text.style.UnderlineSpan;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Class used to encode formatted note text to compact binary form and back
+ *
+ * Format (version 1):
+ * byte    format version
+ * varint  length of text in bytes, followed by text encoded as UTF-8
+ * varint  count of spans, followed by spans ordered by start:
+ *         byte type, varint style (TYPE_STYLE) or 4 bytes color (TYPE_FOREGROUND_COLOR),
+ *         varint start relative to start of previous span, varint length, varint flags
+ *
+ * Text comes first, so plain text can be read from prefix of encoded note
+ */
+public final class SpanCodec {
+
+    static final byte FORMAT_VERSION = 1;
+
+    private static final byte TYPE_STYLE = 1;
+    private static final byte TYPE_UNDERLINE = 2;
+    private static final byte TYPE_FOREGROUND_COLOR = 3;
+
+    // Only these flags are kept, others describe state of editor, i.e. composing text
+    private static final int KEPT_FLAGS = Spanned.SPAN_POINT_MARK_MASK;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private SpanCodec() throws InstantiationException {
+        throw new InstantiationException("This class is not for instantiation");
+    }
+
+    /**
+     * Method used to encode text with its StyleSpans, UnderlineSpans and ForegroundColorSpans
+     * Other spans are dropped
+     * @param spannable text to encode
+     * @return encoded text
+     */
+    public static byte[] encode(final Spanned spannable) {
+        byte[] text = spannable.toString().getBytes(UTF_8);
+        Object[] spans = spannable.getSpans(0, spannable.length(), Object.class);
+        Arrays.sort(spans, new Comparator<Object>() {
+            @Override
+            public int compare(Object first, Object second) {
+                return spannable.getSpanStart(first) - spannable.getSpanStart(second);
+            }
+        });
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(text.length + 8 * spans.length + 16);
+        stream.write(FORMAT_VERSION);
+        writeVarInt(stream, text.length);
+        stream.write(text, 0, text.length);
+
+        int count = 0;
+        for (Object span : spans) {
+            if (isSupported(span)) {
+                count++;
+            }
+        }
+        writeVarInt(stream, count);
+
+        int previousStart = 0;
+        for (Object span : spans) {
+            if (!isSupported(span)) {
+                continue;
+            }
+            if (span instanceof StyleSpan) {
+                stream.write(TYPE_STYLE);
+                writeVarInt(stream, ((StyleSpan) span).getStyle());
+            } else if (span instanceof UnderlineSpan) {
+                stream.write(TYPE_UNDERLINE);
+            } else {
+                stream.write(TYPE_FOREGROUND_COLOR);
+                writeInt(stream, ((ForegroundColorSpan) span).getForegroundColor());
+            }
+            int start = spannable.getSpanStart(span);
+            writeVarInt(stream, start - previousStart);
+            writeVarInt(stream, spannable.getSpanEnd(span) - start);
+            writeVarInt(stream, spannable.getSpanFlags(span) & KEPT_FLAGS);
+            previousStart = start;
+        }
+        return stream.toByteArray();
+    }
+
+    /**
+     * Method used to decode text encoded by encode()
+     * @param encoded encoded text
+     * @return text with its spans
+     * @throws IllegalArgumentException if encoded text is malformed or its version is not supported
+     */
+    public static Spannable decode(byte[] encoded) {
+        Reader reader = new Reader(encoded);
+        String text = reader.readText();
+        SpannableString spannable = new SpannableString(text);
+
+        int count = reader.readVarInt();
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            Object span;
+            byte type = reader.readByte();
+            switch (type) {
+                case TYPE_STYLE:
+                    span = new StyleSpan(reader.readVarInt());
+                    break;
+                case TYPE_UNDERLINE:
+                    span = new UnderlineSpan();
+                    break;
+                case TYPE_FOREGROUND_COLOR:
+                    span = new ForegroundColorSpan(reader.readInt());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown span type " + type);
+            }
+            start += reader.readVarInt();
+            int end = start + reader.readVarInt();
+            int flags = reader.readVarInt();
+            if (end > text.length()) {
+                throw new IllegalArgumentException("Span out of text bounds");
+            }
+            spannable.setSpan(span, start, end, flags);
+        }
+        return spannable;
+    }
+
+    /**
+     * Method used to read plain text from prefix of encoded text, spans aren't read at all
+     * @param prefix encoded text or its first bytes
+     * @return text, or as much of it as prefix contains
+     */
+    public static String decodeText(byte[] prefix) {
+        Reader reader = new Reader(prefix);
+        int length = reader.readTextLength();
+        int start = reader.position;
+        int end = start + Math.min(length, prefix.length - start);
+        if (end - start < length) {
+            // Don't end with part of multi-byte character
+            int lead = end - 1;
+            while (lead > start && (prefix[lead] & 0xC0) == 0x80) {
+                lead--;
+            }
+            if (lead >= start && lead + getCharacterLength(prefix[lead]) > end) {
+                end = lead;
+            }
+        }
+        return new String(prefix, start, end - start, UTF_8);
+    }
+
+    private static int getCharacterLength(byte lead) {
+        if ((lead & 0xE0) == 0xC0) {
+            return 2;
+        } else if ((lead & 0xF0) == 0xE0) {
+            return 3;
+        } else if ((lead & 0xF8) == 0xF0) {
+            return 4;
+        }
+        return 1;
+    }
+
+    private static boolean isSupported(Object span) {
+        return span instanceof StyleSpan || span instanceof UnderlineSpan || span instanceof ForegroundColorSpan;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream stream, int value) {
+        while ((value & ~0x7F) != 0) {
+            stream.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        stream.write(value);
+    }
+
+    private static void writeInt(ByteArrayOutputStream stream, int value) {
+        stream.write(value >>> 24);
+        stream.write(value >>> 16);
+        stream.write(value >>> 8);
+        stream.write(value);
+    }
+
+    /**
+     * Sequential reader of encoded text
+     */
+    private static class Reader {
+
+        private final byte[] bytes;
+        private int position;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int readTextLength() {
+            byte version = readByte();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported format version " + version);
+            }
+            return readVarInt();
+        }
+
+        String readText() {
+            int length = readTextLength();
+            if (length > bytes.length - position) {
+                throw new IllegalArgumentException("Text out of bounds");
+            }
+            String text = new String(bytes, position, length, UTF_8);
+            position += length;
+            return text;
+        }
+
+        byte readByte() {
+            if (position >= bytes.length) {
+                throw new IllegalArgumentException("Unexpected end of encoded text");
+            }
+            return bytes[position++];
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        int readInt() {
+            return (readByte() & 0xFF) << 24 | (readByte() & 0xFF) << 16
+                    | (readByte() & 0xFF) << 8 | (readByte() & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.tomek.notepad;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot of space used by database and drawings, returned by DatabaseHandler.getStorageStats()
+ * Meant for debug screens and logs, it's not updated when notes change
+ */
+public class StorageStats {
+
+    /**
+     * Space used by single note
+     */
+    public static class NoteSize {
+
+        private final int noteId;
+        private final long textBytes;
+        private final long legacyImageBytes;
+        private final long drawingFileBytes;
+        private final long revisionBytes;
+
+        public NoteSize(int noteId, long textBytes, long legacyImageBytes, long drawingFileBytes, long revisionBytes) {
+            this.noteId = noteId;
+            this.textBytes = textBytes;
+            this.legacyImageBytes = legacyImageBytes;
+            this.drawingFileBytes = drawingFileBytes;
+            this.revisionBytes = revisionBytes;
+        }
+
+        public int getNoteId() {
+            return noteId;
+        }
+
+        /**
+         * @return size of encoded text, including HTML of notes not migrated yet
+         */
+        public long getTextBytes() {
+            return textBytes;
+        }
+
+        /**
+         * @return size of drawing still kept in notes table, 0 once it's migrated to DrawingStore
+         */
+        public long getLegacyImageBytes() {
+            return legacyImageBytes;
+        }
+
+        /**
+         * @return size of drawing file, file can be shared by notes with identical drawings
+         */
+        public long getDrawingFileBytes() {
+            return drawingFileBytes;
+        }
+
+        /**
+         * @return size of note's revisions in database, drawing files kept for them aren't included
+         */
+        public long getRevisionBytes() {
+            return revisionBytes;
+        }
+    }
+
+    private final long pageSize;
+    private final long pageCount;
+    private final long freelistCount;
+    private final boolean isIncrementalVacuumEnabled;
+    private final long walFileBytes;
+    private final List<NoteSize> noteSizes;
+
+    public StorageStats(long pageSize, long pageCount, long freelistCount, boolean isIncrementalVacuumEnabled,
+                        long walFileBytes, List<NoteSize> noteSizes) {
+        this.pageSize = pageSize;
+        this.pageCount = pageCount;
+        this.freelistCount = freelistCount;
+        this.isIncrementalVacuumEnabled = isIncrementalVacuumEnabled;
+        this.walFileBytes = walFileBytes;
+        this.noteSizes = Collections.unmodifiableList(noteSizes);
+    }
+
+    public long getPageSize() {
+        return pageSize;
+    }
+
+    public long getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @return count of unused pages, given back to file system by DatabaseHandler.runMaintenance()
+     */
+    public long getFreelistCount() {
+        return freelistCount;
+    }
+
+    /**
+     * @return size of database file, without write-ahead log
+     */
+    public long getDatabaseBytes() {
+        return pageSize * pageCount;
+    }
+
+    public long getFreeBytes() {
+        return pageSize * freelistCount;
+    }
+
+    public boolean isIncrementalVacuumEnabled() {
+        return isIncrementalVacuumEnabled;
+    }
+
+    public long getWalFileBytes() {
+        return walFileBytes;
+    }
+
+    /**
+     * @return space used by each note, ordered by note id
+     */
+    public List<NoteSize> getNoteSizes() {
+        return noteSizes;
+    }
+
+    @Override
+    public String toString() {
+        return "StorageStats{pages=" + pageCount + " x " + pageSize + "B, free=" + freelistCount
+                + ", incrementalVacuum=" + isIncrementalVacuumEnabled + ", wal=" + walFileBytes
+                + "B, notes=" + noteSizes.size() + "}";
+    }
+}
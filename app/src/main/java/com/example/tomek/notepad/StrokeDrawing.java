@@ -0,0 +1,256 @@
+package com.example.tomek.notepad;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Drawing kept as strokes user drew instead of pixels, rasterized when it's shown
+ *
+ * Format:
+ * bytes   MAGIC
+ * varint  width and height of canvas strokes are placed on
+ * varint  count of strokes
+ * each stroke:
+ * int     color
+ * varint  width in 1/POINT_SCALE px
+ * byte    flags, FLAG_ERASE
+ * varint  count of points
+ * varint  x and y of each point as zigzag delta from previous point (of previous stroke for first one),
+ *         in 1/POINT_SCALE px
+ *
+ * Points of finger move by few pixels, so most deltas take single byte. Drawing is stored in hundreds of bytes
+ * instead of compressed screen-sized raster, and it can be drawn again at any size.
+ */
+public class StrokeDrawing {
+
+    static final byte[] MAGIC = {'N', 'S', 'T', 'K'};
+
+    // Points are rounded to 1/8 px, much finer than any display shows
+    private static final float POINT_SCALE = 8;
+    private static final int FLAG_ERASE = 1;
+    // Bound of counts read from stream, so malformed file can't make huge allocation
+    private static final int MAX_COUNT = 1 << 24;
+
+    private final int width;
+    private final int height;
+    private final ArrayList<DrawingView.Stroke> strokes;
+
+    /**
+     * @param width width of canvas strokes are placed on
+     * @param height height of canvas strokes are placed on
+     */
+    public StrokeDrawing(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid drawing size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.strokes = new ArrayList<>();
+    }
+
+    /**
+     * Copy constructor, strokes are immutable so only their list is copied
+     */
+    public StrokeDrawing(StrokeDrawing drawing) {
+        this.width = drawing.width;
+        this.height = drawing.height;
+        this.strokes = new ArrayList<>(drawing.strokes);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public List<DrawingView.Stroke> getStrokes() {
+        return Collections.unmodifiableList(strokes);
+    }
+
+    /**
+     * @return true if there are no strokes, there's nothing to store then
+     */
+    public boolean isEmpty() {
+        return strokes.isEmpty();
+    }
+
+    /**
+     * Method used to add stroke on top of the others
+     * @param stroke stroke drawn on canvas of any size, it's scaled to canvas of this drawing
+     */
+    public void add(DrawingView.Stroke stroke) {
+        if (stroke.points.length < 2) {
+            return;
+        }
+        if (stroke.canvasWidth == width || stroke.canvasWidth <= 0) {
+            strokes.add(stroke);
+            return;
+        }
+        float scale = (float) width / stroke.canvasWidth;
+        float[] points = new float[stroke.points.length];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = stroke.points[i] * scale;
+        }
+        strokes.add(new DrawingView.Stroke(stroke.color, stroke.width * scale, stroke.erase, points, width, height));
+    }
+
+    /**
+     * Method used to remove all strokes, i.e. when user starts new drawing
+     */
+    public void clear() {
+        strokes.clear();
+    }
+
+    /**
+     * Method used to draw strokes at size of canvas they were placed on
+     * @return new mutable Bitmap
+     */
+    public Bitmap rasterize() {
+        return rasterize(width, height);
+    }
+
+    /**
+     * Method used to draw strokes at any size
+     * Strokes are scaled by ratio of widths, so they keep their shape and place relative to the text.
+     * Strokes below given height are cut off
+     * @return new mutable Bitmap, taken from BitmapPool if it has one that fits
+     */
+    public Bitmap rasterize(int bitmapWidth, int bitmapHeight) {
+        Bitmap bitmap = BitmapPool.getInstance().get(bitmapWidth, bitmapHeight);
+        Canvas canvas = new Canvas(bitmap);
+        float scale = (float) bitmapWidth / width;
+        canvas.scale(scale, scale);
+        for (DrawingView.Stroke stroke : strokes) {
+            stroke.drawOn(canvas);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Method used to get height the drawing has when it's rasterized at given width
+     */
+    public int getScaledHeight(int bitmapWidth) {
+        return (int) Math.ceil((double) height * bitmapWidth / width);
+    }
+
+    /**
+     * Method used to encode drawing to stream, stream isn't closed
+     */
+    public void write(OutputStream output) throws IOException {
+        DataOutputStream stream = new DataOutputStream(output);
+        stream.write(MAGIC);
+        writeVarint(stream, width);
+        writeVarint(stream, height);
+        writeVarint(stream, strokes.size());
+        int lastX = 0;
+        int lastY = 0;
+        for (DrawingView.Stroke stroke : strokes) {
+            stream.writeInt(stroke.color);
+            writeVarint(stream, Math.round(stroke.width * POINT_SCALE));
+            stream.writeByte(stroke.erase ? FLAG_ERASE : 0);
+            writeVarint(stream, stroke.points.length / 2);
+            for (int i = 0; i + 1 < stroke.points.length; i += 2) {
+                int x = Math.round(stroke.points[i] * POINT_SCALE);
+                int y = Math.round(stroke.points[i + 1] * POINT_SCALE);
+                writeVarint(stream, zigzag(x - lastX));
+                writeVarint(stream, zigzag(y - lastY));
+                lastX = x;
+                lastY = y;
+            }
+        }
+        stream.flush();
+    }
+
+    /**
+     * Method used to decode drawing written by write()
+     * @param input stream of encoded drawing, it isn't closed
+     * @return decoded drawing, null if stream doesn't start with MAGIC
+     * @throws IOException if drawing is malformed
+     */
+    public static StrokeDrawing read(InputStream input) throws IOException {
+        DataInputStream stream = new DataInputStream(input);
+        byte[] magic = new byte[MAGIC.length];
+        try {
+            stream.readFully(magic);
+        } catch (EOFException e) {
+            return null;
+        }
+        if (!Arrays.equals(magic, MAGIC)) {
+            return null;
+        }
+
+        int width = readVarint(stream);
+        int height = readVarint(stream);
+        if (width <= 0 || height <= 0 || width > TileDelta.MAX_DRAWING_SIZE || height > TileDelta.MAX_DRAWING_SIZE) {
+            throw new IOException("Invalid drawing size " + width + "x" + height);
+        }
+        StrokeDrawing drawing = new StrokeDrawing(width, height);
+        int strokeCount = readCount(stream);
+        int lastX = 0;
+        int lastY = 0;
+        for (int i = 0; i < strokeCount; i++) {
+            int color = stream.readInt();
+            float strokeWidth = readVarint(stream) / POINT_SCALE;
+            boolean erase = (stream.readByte() & FLAG_ERASE) != 0;
+            float[] points = new float[2 * readCount(stream)];
+            for (int j = 0; j < points.length; j += 2) {
+                lastX += unzigzag(readVarint(stream));
+                lastY += unzigzag(readVarint(stream));
+                points[j] = lastX / POINT_SCALE;
+                points[j + 1] = lastY / POINT_SCALE;
+            }
+            drawing.add(new DrawingView.Stroke(color, strokeWidth, erase, points, width, height));
+        }
+        return drawing;
+    }
+
+    private static void writeVarint(DataOutputStream stream, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            stream.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        stream.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream stream) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = stream.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int readCount(DataInputStream stream) throws IOException {
+        int count = readVarint(stream);
+        if (count < 0 || count > MAX_COUNT) {
+            throw new IOException("Invalid count " + count);
+        }
+        return count;
+    }
+
+    // Maps signed deltas to unsigned values, so small negative ones take single byte too
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
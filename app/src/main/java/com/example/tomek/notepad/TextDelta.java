@@ -0,0 +1,93 @@
+package com.example.tomek.notepad;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Class used to compute compact difference between two versions of text encoded by SpanCodec
+ *
+ * Format:
+ * varint  length of prefix shared by both versions
+ * varint  length of suffix shared by both versions
+ * bytes   part of target version between prefix and suffix
+ *
+ * Typical edit of a note changes one place, so delta is as long as the edited part.
+ * SpanCodec keeps span starts relative to each other, so spans after the edit don't make delta longer.
+ */
+public final class TextDelta {
+
+    private TextDelta() throws InstantiationException {
+        throw new InstantiationException("This class is not for instantiation");
+    }
+
+    /**
+     * Method used to compute delta that turns base into target
+     * @param base version delta is applied to
+     * @param target version delta produces
+     * @return encoded delta
+     */
+    public static byte[] create(byte[] base, byte[] target) {
+        int maxLength = Math.min(base.length, target.length);
+        int prefix = 0;
+        while (prefix < maxLength && base[prefix] == target[prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < maxLength - prefix
+                && base[base.length - 1 - suffix] == target[target.length - 1 - suffix]) {
+            suffix++;
+        }
+
+        int middle = target.length - prefix - suffix;
+        ByteArrayOutputStream delta = new ByteArrayOutputStream(middle + 10);
+        writeVarInt(delta, prefix);
+        writeVarInt(delta, suffix);
+        delta.write(target, prefix, middle);
+        return delta.toByteArray();
+    }
+
+    /**
+     * Method used to get target version from base version and delta created by create()
+     * @param base the same version delta was created with
+     * @param delta encoded delta
+     * @return target version
+     * @throws IllegalArgumentException if delta is malformed or doesn't fit the base
+     */
+    public static byte[] apply(byte[] base, byte[] delta) {
+        int[] position = {0};
+        int prefix = readVarInt(delta, position);
+        int suffix = readVarInt(delta, position);
+        int middle = delta.length - position[0];
+        if (prefix < 0 || suffix < 0 || prefix + suffix > base.length) {
+            throw new IllegalArgumentException("Delta doesn't match base");
+        }
+
+        byte[] target = new byte[prefix + middle + suffix];
+        System.arraycopy(base, 0, target, 0, prefix);
+        System.arraycopy(delta, position[0], target, prefix, middle);
+        System.arraycopy(base, base.length - suffix, target, prefix + middle, suffix);
+        return target;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream stream, int value) {
+        while ((value & ~0x7F) != 0) {
+            stream.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        stream.write(value);
+    }
+
+    private static int readVarInt(byte[] bytes, int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (position[0] >= bytes.length) {
+                throw new IllegalArgumentException("Unexpected end of delta");
+            }
+            byte b = bytes[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.tomek.notepad;
+
+import android.graphics.Bitmap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Class used to compute difference between two drawings of the same size as set of changed tiles
+ *
+ * Format (version 1), deflated:
+ * byte    format version
+ * int     width, int height, int tile size
+ * tiles   int index of tile (row by row), followed by its ARGB pixels of target drawing
+ * int     -1 after the last tile
+ *
+ * Stroke drawn on a note touches few tiles, so delta is much smaller than the whole drawing.
+ * Delta from empty drawing is used by TiledDrawing to store only tiles with ink.
+ */
+public final class TileDelta {
+
+    static final byte FORMAT_VERSION = 1;
+    static final int TILE_SIZE = 64;
+
+    private static final int END_OF_TILES = -1;
+    // Larger tiles and drawings are rejected, so malformed delta can't make read() allocate huge buffers
+    private static final int MAX_TILE_SIZE = 1024;
+    static final int MAX_DRAWING_SIZE = 8192;
+
+    private TileDelta() throws InstantiationException {
+        throw new InstantiationException("This class is not for instantiation");
+    }
+
+    /**
+     * Method used to compute delta that turns base drawing into target drawing
+     * @param base drawing delta is applied to
+     * @param target drawing delta produces
+     * @return encoded delta, null if drawings have different size
+     */
+    public static byte[] create(Bitmap base, Bitmap target) {
+        if (base.getWidth() != target.getWidth() || base.getHeight() != target.getHeight()) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            write(base, target, bytes);
+        } catch (IOException e) {
+            // Stream is backed by memory only
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Method used to get target drawing from base drawing and delta created by create()
+     * @param base the same drawing delta was created with, it's not modified
+     * @param delta encoded delta
+     * @return new mutable Bitmap of target drawing
+     * @throws IllegalArgumentException if delta is malformed or doesn't fit the base
+     */
+    public static Bitmap apply(Bitmap base, byte[] delta) {
+        try {
+            return read(base, new ByteArrayInputStream(delta));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed tile delta", e);
+        }
+    }
+
+    /**
+     * Method used to write delta that turns base drawing into target drawing to stream
+     * Stream is finished but not closed
+     * @param base drawing of the same size as target, null for empty (transparent) drawing
+     * @param target drawing delta produces
+     * @return count of tiles written, 0 if drawings are the same
+     */
+    static int write(Bitmap base, Bitmap target, OutputStream output) throws IOException {
+        int width = target.getWidth();
+        int height = target.getHeight();
+        int[] basePixels = new int[TILE_SIZE * TILE_SIZE];
+        int[] targetPixels = new int[TILE_SIZE * TILE_SIZE];
+        ByteBuffer tileBytes = ByteBuffer.allocate(TILE_SIZE * TILE_SIZE * 4);
+        Deflater deflater = new Deflater();
+        try {
+            DeflaterOutputStream deflaterStream = new DeflaterOutputStream(output, deflater);
+            DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(deflaterStream));
+            stream.writeByte(FORMAT_VERSION);
+            stream.writeInt(width);
+            stream.writeInt(height);
+            stream.writeInt(TILE_SIZE);
+
+            int tileCount = 0;
+            int index = 0;
+            for (int y = 0; y < height; y += TILE_SIZE) {
+                for (int x = 0; x < width; x += TILE_SIZE, index++) {
+                    int tileWidth = Math.min(TILE_SIZE, width - x);
+                    int tileHeight = Math.min(TILE_SIZE, height - y);
+                    int count = tileWidth * tileHeight;
+                    target.getPixels(targetPixels, 0, tileWidth, x, y, tileWidth, tileHeight);
+                    if (base != null) {
+                        base.getPixels(basePixels, 0, tileWidth, x, y, tileWidth, tileHeight);
+                    }
+                    if (base != null ? isRangeEqual(basePixels, targetPixels, count) : isRangeEmpty(targetPixels, count)) {
+                        continue;
+                    }
+                    stream.writeInt(index);
+                    tileBytes.clear();
+                    tileBytes.asIntBuffer().put(targetPixels, 0, count);
+                    stream.write(tileBytes.array(), 0, count * 4);
+                    tileCount++;
+                }
+            }
+            stream.writeInt(END_OF_TILES);
+            stream.flush();
+            deflaterStream.finish();
+            return tileCount;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Method used to read delta written by write() from stream and apply it
+     * @param base the same drawing delta was created with, it's not modified. Null for empty drawing
+     * @return new mutable Bitmap of target drawing
+     * @throws IOException if delta is malformed or doesn't fit the base
+     */
+    static Bitmap read(Bitmap base, InputStream input) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            return readTiles(base, new DataInputStream(new BufferedInputStream(new InflaterInputStream(input, inflater))));
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static Bitmap readTiles(Bitmap base, DataInputStream stream) throws IOException {
+        byte version = stream.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported tile delta version " + version);
+        }
+        int width = stream.readInt();
+        int height = stream.readInt();
+        int tileSize = stream.readInt();
+        if (tileSize <= 0 || tileSize > MAX_TILE_SIZE) {
+            throw new IOException("Malformed tile size " + tileSize);
+        }
+        Bitmap target;
+        if (base != null) {
+            if (width != base.getWidth() || height != base.getHeight()) {
+                throw new IOException("Delta doesn't match base");
+            }
+            target = base.copy(Bitmap.Config.ARGB_8888, true);
+        } else {
+            if (width <= 0 || height <= 0 || width > MAX_DRAWING_SIZE || height > MAX_DRAWING_SIZE) {
+                throw new IOException("Malformed drawing size " + width + "x" + height);
+            }
+            target = BitmapPool.getInstance().get(width, height);
+        }
+
+        int columns = (width + tileSize - 1) / tileSize;
+        int tileCount = columns * ((height + tileSize - 1) / tileSize);
+        int[] pixels = new int[tileSize * tileSize];
+        byte[] tileBytes = new byte[tileSize * tileSize * 4];
+        int index;
+        while ((index = stream.readInt()) != END_OF_TILES) {
+            if (index < 0 || index >= tileCount) {
+                throw new IOException("Tile " + index + " out of drawing bounds");
+            }
+            int x = (index % columns) * tileSize;
+            int y = (index / columns) * tileSize;
+            int tileWidth = Math.min(tileSize, width - x);
+            int tileHeight = Math.min(tileSize, height - y);
+            int count = tileWidth * tileHeight;
+            stream.readFully(tileBytes, 0, count * 4);
+            ByteBuffer.wrap(tileBytes, 0, count * 4).asIntBuffer().get(pixels, 0, count);
+            target.setPixels(pixels, 0, tileWidth, x, y, tileWidth, tileHeight);
+        }
+        return target;
+    }
+
+    private static boolean isRangeEqual(int[] first, int[] second, int count) {
+        for (int i = 0; i < count; i++) {
+            if (first[i] != second[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isRangeEmpty(int[] pixels, int count) {
+        for (int i = 0; i < count; i++) {
+            if (pixels[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.tomek.notepad;
+
+import android.graphics.Bitmap;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Class used to encode drawings as set of their non-empty tiles
+ *
+ * Format:
+ * bytes   MAGIC
+ * delta   TileDelta from empty drawing of the same size, it contains only tiles with ink
+ *
+ * Canvas covers whole screen, but strokes cover small part of it. Tiles without ink aren't encoded at all,
+ * so encoding time and size grow with ink rather than with screen resolution.
+ * Drawings stored as PNG by older versions are still decoded, just like drawings stored as StrokeDrawing.
+ */
+public final class TiledDrawing {
+
+    private static final byte[] MAGIC = {'N', 'T', 'D', 'W'};
+
+    private TiledDrawing() throws InstantiationException {
+        throw new InstantiationException("This class is not for instantiation");
+    }
+
+    /**
+     * Method used to encode drawing to stream, stream isn't closed
+     * @param drawing drawing to encode
+     * @return count of encoded tiles, 0 if drawing is empty and it doesn't have to be stored
+     */
+    public static int write(Bitmap drawing, OutputStream output) throws IOException {
+        output.write(MAGIC);
+        return TileDelta.write(null, drawing, output);
+    }
+
+    /**
+     * Method used to decode drawing written by write(), by StrokeDrawing or encoded as PNG
+     * @param input stream of encoded drawing, it isn't closed
+     * @return new mutable Bitmap, decoded into bitmap taken from BitmapPool if it has one that fits
+     * @throws IOException if drawing can't be decoded
+     */
+    public static Bitmap read(InputStream input) throws IOException {
+        InputStream stream = input.markSupported() ? input : new BufferedInputStream(input);
+        stream.mark(MAGIC.length);
+        byte[] magic = new byte[MAGIC.length];
+        int length = 0;
+        int count;
+        while (length < magic.length && (count = stream.read(magic, length, magic.length - length)) != -1) {
+            length += count;
+        }
+        if (Arrays.equals(magic, MAGIC)) {
+            return TileDelta.read(null, stream);
+        }
+
+        stream.reset();
+        StrokeDrawing strokes = StrokeDrawing.read(stream);
+        if (strokes != null) {
+            return strokes.rasterize();
+        }
+
+        stream.reset();
+        Bitmap drawing = BitmapPool.getInstance().decode(stream);
+        if (drawing == null) {
+            throw new IOException("Unknown drawing format");
+        }
+        return drawing;
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.tomek.notepad;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class used to delete notes moved to trash for good, in small batches in background
+ * Notes stay in trash for UNDO_TIMEOUT_MILLIS, so user can undo deletion meanwhile
+ */
+public class TrashPurger {
+
+    private static final String TAG = "TrashPurger";
+
+    // Time user has to undo deletion, longer than Snackbar offering it is shown
+    static final long UNDO_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    // Count of notes deleted in single transaction
+    private static final int BATCH_SIZE = 20;
+    // Count of free pages released after each batch
+    private static final int PAGES_PER_BATCH = 64;
+
+    private static TrashPurger sInstance;
+
+    private final DatabaseHandler dbHandler;
+    private final DatabaseExecutor dbExecutor = DatabaseExecutor.getInstance();
+
+    // Next scheduled purge, guarded by this
+    private ScheduledFuture<?> scheduledPurge;
+
+    private TrashPurger(Context context) {
+        dbHandler = DatabaseHandler.getInstance(context);
+    }
+
+    /**
+     * Method used to get shared TrashPurger
+     * @param context any Context, only application Context is kept
+     * @return process-wide TrashPurger
+     */
+    public static synchronized TrashPurger getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TrashPurger(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Method used to purge expired notes in background
+     * Should be called whenever notes are trashed, purge of notes that aren't expired yet is scheduled
+     */
+    public synchronized void start() {
+        schedule(0);
+    }
+
+    /**
+     * Method used to schedule purge, unless one is already waiting to run sooner
+     * Purge that is running already doesn't count, notes could be trashed after it checked
+     */
+    private synchronized void schedule(long delayMillis) {
+        if (scheduledPurge != null && scheduledPurge.getDelay(TimeUnit.MILLISECONDS) > 0) {
+            if (scheduledPurge.getDelay(TimeUnit.MILLISECONDS) <= delayMillis) {
+                return;
+            }
+            scheduledPurge.cancel(false);
+        }
+        scheduledPurge = dbExecutor.scheduleWrite(new Runnable() {
+            @Override
+            public void run() {
+                purge();
+            }
+        }, delayMillis);
+    }
+
+    private void purge() {
+        try {
+            long trashedBefore = System.currentTimeMillis() - UNDO_TIMEOUT_MILLIS;
+            int purgedCount = dbHandler.purgeTrash(trashedBefore, BATCH_SIZE);
+            dbHandler.releaseFreePages(PAGES_PER_BATCH);
+            if (purgedCount > 0) {
+                // Next batch goes after writes queued meanwhile
+                schedule(0);
+                return;
+            }
+
+            // Notes trashed meanwhile, or within undo timeout
+            long oldestTrashTime = dbHandler.getOldestTrashTime();
+            if (oldestTrashTime != -1) {
+                long delay = oldestTrashTime + UNDO_TIMEOUT_MILLIS - System.currentTimeMillis();
+                schedule(Math.max(delay, 0) + 1);
+            }
+        } catch (SQLiteException e) {
+            // Failed batch was rolled back, notes stay in trash until next start()
+            Log.e(TAG, "Purge batch failed", e);
+        }
+    }
+}